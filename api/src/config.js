@@ -83,6 +83,10 @@ module.exports = {
     MASTER_TOKEN: process.env.MASTER_TOKEN || 'change-me-to-a-secure-random-token',
     COMMAND_EXPIRY_HOURS: parseInt(process.env.COMMAND_EXPIRY_HOURS || '24', 10),
     CLEANUP_INTERVAL_MINUTES: parseInt(process.env.CLEANUP_INTERVAL_MINUTES || '5', 10),
+    CLEANUP_CHUNK_SIZE: parseInt(process.env.CLEANUP_CHUNK_SIZE || '500', 10),
+    CLEANUP_CHUNK_PAUSE_MS: parseInt(process.env.CLEANUP_CHUNK_PAUSE_MS || '100', 10),
+    ARCHIVE_ENABLED: process.env.ARCHIVE_ENABLED === 'true',
+    ARCHIVE_RETENTION_DAYS: parseInt(process.env.ARCHIVE_RETENTION_DAYS || '30', 10),
     BROADCAST_STAGGER_SECONDS: parseFloat(process.env.BROADCAST_STAGGER_SECONDS || '2'),
     DB_HOST: process.env.DB_HOST || 'localhost',
     DB_PORT: parseInt(process.env.DB_PORT || '3306', 10),
@@ -91,6 +95,16 @@ module.exports = {
     DB_NAME: process.env.DB_NAME || 'pluginrcon',
     REQUEST_TIMEOUT_MS: parseInt(process.env.REQUEST_TIMEOUT_MS || '15000', 10),
     PENDING_CACHE_TTL_MS: parseInt(process.env.PENDING_CACHE_TTL_MS || '1000', 10),
+    CLAIM_LEASE_SECONDS: parseInt(process.env.CLAIM_LEASE_SECONDS || '30', 10),
+    CLAIM_MAX_BATCH: parseInt(process.env.CLAIM_MAX_BATCH || '100', 10),
+    CLAIM_DEFER_SECONDS: parseInt(process.env.CLAIM_DEFER_SECONDS || '30', 10),
+    REPORT_MAX_BATCH: parseInt(process.env.REPORT_MAX_BATCH || '500', 10),
+    INSERT_BATCH_ROWS: parseInt(process.env.INSERT_BATCH_ROWS || '100', 10),
+    INGEST_BUFFER_ENABLED: process.env.INGEST_BUFFER_ENABLED === 'true',
+    INGEST_FLUSH_MS: parseInt(process.env.INGEST_FLUSH_MS || '200', 10),
+    INGEST_FLUSH_ROWS: parseInt(process.env.INGEST_FLUSH_ROWS || '1000', 10),
+    INGEST_MAX_BUFFERED: parseInt(process.env.INGEST_MAX_BUFFERED || '20000', 10),
+    INGEST_MAX_ATTEMPTS: parseInt(process.env.INGEST_MAX_ATTEMPTS || '5', 10),
     getNetworks,
     getNetworkForServer,
     getServerToken,
@@ -6,6 +6,7 @@ const rateLimit = require('express-rate-limit');
 const config = require('./config');
 const logger = require('./logger');
 const requestTimeout = require('./middleware/timeout');
+const { WIRE_TYPE } = require('./wire');
 const { initDatabase, shutdown } = require('./database');
 
 async function start() {
@@ -14,6 +15,7 @@ async function start() {
     const commandRoutes = require('./routes/commands');
     const serverRoutes = require('./routes/servers');
     const { startCleanupJob } = require('./services/cleanupService');
+    const ingestBuffer = require('./services/ingestBuffer');
 
     const app = express();
 
@@ -21,6 +23,7 @@ async function start() {
     app.use(cors());
     app.use(pinoHttp({ logger, autoLogging: { ignore: (req) => req.url === '/api/health' } }));
     app.use(express.json({ limit: '1mb' }));
+    app.use(express.raw({ type: WIRE_TYPE, limit: '1mb' }));
     app.use(requestTimeout(config.REQUEST_TIMEOUT_MS));
 
     const limiter = rateLimit({
@@ -65,6 +68,7 @@ async function start() {
     const gracefulShutdown = (signal) => {
         logger.info(`${signal} received, shutting down...`);
         server.close(async () => {
+            await ingestBuffer.drain();
             await shutdown();
             logger.info('Shutdown complete');
             process.exit(0);
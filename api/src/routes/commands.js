@@ -1,17 +1,16 @@
 const express = require('express');
 const { v4: uuidv4 } = require('uuid');
-const { LRUCache } = require('lru-cache');
-const { asyncStmts, insertBulkAsync, insertBroadcastBulkAsync } = require('../database');
+const { asyncStmts, insertBulkAsync, insertBroadcastBulkAsync, toCreatedRow } = require('../database');
 const { masterAuth, serverAuth, combinedAuth } = require('../middleware/auth');
 const config = require('../config');
 const logger = require('../logger');
+const wire = require('../wire');
+const pendingCache = require('../services/pendingCache');
+const ingestBuffer = require('../services/ingestBuffer');
 
 const router = express.Router();
 
-const pendingCache = new LRUCache({
-    max: 200,
-    ttl: config.PENDING_CACHE_TTL_MS,
-});
+const MAX_SCRIPT_LINES = 32;
 
 function computeExpiresAt(hoursFromNow) {
     const hours = hoursFromNow || config.COMMAND_EXPIRY_HOURS;
@@ -19,13 +18,85 @@ function computeExpiresAt(hoursFromNow) {
     return expires.toISOString().replace('T', ' ').substring(0, 19);
 }
 
+function validateScript(script) {
+    if (script === undefined || script === null) return null;
+    if (!Array.isArray(script) || script.length === 0) {
+        return 'script must be a non-empty array of command lines';
+    }
+    if (script.length > MAX_SCRIPT_LINES) {
+        return `script may contain at most ${MAX_SCRIPT_LINES} lines`;
+    }
+    if (!script.every(line => typeof line === 'string' && line.trim().length > 0)) {
+        return 'script lines must be non-empty strings';
+    }
+    return null;
+}
+
+function validateConditions(conditions, player) {
+    if (conditions === undefined || conditions === null) return null;
+    if (typeof conditions !== 'object' || Array.isArray(conditions)) {
+        return 'conditions must be an object';
+    }
+    if ((conditions.permission !== undefined || conditions.world !== undefined) && !player) {
+        return 'conditions.permission and conditions.world require a player';
+    }
+    for (const [key, value] of Object.entries(conditions)) {
+        if (key === 'permission' || key === 'world') {
+            if (typeof value !== 'string' || value.length === 0) return `conditions.${key} must be a non-empty string`;
+        } else if (key === 'minOnline' || key === 'maxOnline') {
+            if (!Number.isInteger(value) || value < 0) return `conditions.${key} must be a non-negative integer`;
+        } else {
+            return `Unknown condition: ${key}`;
+        }
+    }
+    return null;
+}
+
+/**
+ * Game mode the polling server runs, sent with every poll so that any API
+ * node can filter without keeping per-server state.
+ */
+function requestedGameMode(value) {
+    return typeof value === 'string' && value.length > 0 ? value : null;
+}
+
+/**
+ * Optional features the claiming plugin supports. Plugins that don't declare
+ * `scripts` or `conditions` are not handed rows that need them, since they
+ * would run only the first script line or ignore the conditions.
+ */
+function requestedCapabilities(value) {
+    const declared = Array.isArray(value) ? value.map(String) : [];
+    return {
+        scripts: declared.includes('scripts'),
+        conditions: declared.includes('conditions'),
+    };
+}
+
+function isClaimable(cmd, capabilities) {
+    return (capabilities.scripts || !cmd.script) && (capabilities.conditions || !cmd.conditions);
+}
+
+function sendCommands(req, res, commands, extra) {
+    if (wire.prefersWire(req)) {
+        return res.type(wire.WIRE_TYPE).send(wire.encodeCommands(commands));
+    }
+    res.json({ success: true, commands, ...extra });
+}
+
 router.post('/', masterAuth, async (req, res) => {
     try {
-        const { serverId, gameMode, command, player, executionType, expiryHours } = req.body;
+        const { serverId, gameMode, player, executionType, expiryHours, script, conditions } = req.body;
 
+        const scriptError = validateScript(script) || validateConditions(conditions, player);
+        if (scriptError) {
+            return res.status(400).json({ error: scriptError });
+        }
+
+        const command = req.body.command || (script ? script[0] : null);
         if (!serverId || !command || !executionType) {
             return res.status(400).json({
-                error: 'Missing required fields: serverId, command, executionType',
+                error: 'Missing required fields: serverId, command (or script), executionType',
             });
         }
 
@@ -58,6 +129,8 @@ router.post('/', masterAuth, async (req, res) => {
                 serverId: srv,
                 gameMode: gameMode || null,
                 command,
+                script: script || null,
+                conditions: conditions || null,
                 player,
                 executionType,
                 expiresAt,
@@ -65,14 +138,24 @@ router.post('/', masterAuth, async (req, res) => {
             }));
 
             const created = await insertBroadcastBulkAsync(cmds);
-            pendingCache.clear();
+            pendingCache.invalidate(allServers);
             res.status(201).json({ success: true, groupId, commands: created });
         } else {
-            const id = uuidv4();
-            await asyncStmts.insertCommand(id, serverId, gameMode || null, command, player || null, executionType, expiresAt);
-            const created = await asyncStmts.getById(id);
-            pendingCache.delete(serverId);
-            res.status(201).json({ success: true, command: created });
+            const cmd = {
+                id: uuidv4(),
+                serverId,
+                gameMode: gameMode || null,
+                command,
+                script: script || null,
+                conditions: conditions || null,
+                player: player || null,
+                executionType,
+                expiresAt,
+            };
+            await asyncStmts.insertCommand(cmd.id, cmd.serverId, cmd.gameMode, cmd.command, cmd.script,
+                cmd.conditions, cmd.player, cmd.executionType, cmd.expiresAt);
+            pendingCache.invalidate(serverId);
+            res.status(201).json({ success: true, command: toCreatedRow(cmd) });
         }
     } catch (err) {
         logger.error({ err }, 'Error creating command');
@@ -98,7 +181,13 @@ router.post('/bulk', masterAuth, async (req, res) => {
 
         for (let i = 0; i < commands.length; i++) {
             const cmd = commands[i];
-            if (!cmd.serverId || !cmd.command || !cmd.executionType) {
+            const scriptError = validateScript(cmd.script) || validateConditions(cmd.conditions, cmd.player);
+            if (scriptError) {
+                errors.push({ index: i, error: scriptError });
+                continue;
+            }
+            const command = cmd.command || (cmd.script ? cmd.script[0] : null);
+            if (!cmd.serverId || !command || !cmd.executionType) {
                 errors.push({ index: i, error: 'Missing required fields' });
                 continue;
             }
@@ -115,16 +204,31 @@ router.post('/bulk', masterAuth, async (req, res) => {
                 id: uuidv4(),
                 serverId: cmd.serverId,
                 gameMode: cmd.gameMode || null,
-                command: cmd.command,
+                command,
+                script: cmd.script || null,
+                conditions: cmd.conditions || null,
                 player: cmd.player || null,
                 executionType: cmd.executionType,
                 expiresAt: computeExpiresAt(cmd.expiryHours),
             });
         }
 
+        if (req.body.defer === true && ingestBuffer.isEnabled()) {
+            if (prepared.length > 0 && !ingestBuffer.enqueue(prepared)) {
+                res.set('Retry-After', '1');
+                return res.status(503).json({ error: 'Ingest buffer is full, retry shortly' });
+            }
+            return res.status(202).json({
+                success: true,
+                accepted: prepared.length,
+                ids: prepared.map(cmd => cmd.id),
+                errors: errors.length > 0 ? errors : undefined,
+            });
+        }
+
         if (prepared.length > 0) {
             await insertBulkAsync(prepared);
-            pendingCache.clear();
+            pendingCache.invalidate(prepared.map(cmd => cmd.serverId));
         }
 
         res.status(201).json({
@@ -140,20 +244,148 @@ router.post('/bulk', masterAuth, async (req, res) => {
 
 router.get('/pending/:serverName', serverAuth, async (req, res) => {
     try {
-        const cached = pendingCache.get(req.serverName);
+        const gameMode = requestedGameMode(req.query.gameMode);
+        const cached = pendingCache.peek(req.serverName);
         if (cached) {
-            return res.json({ success: true, commands: cached, cached: true });
+            return sendCommands(req, res, pendingCache.forGameMode(cached, gameMode), { cached: true });
         }
 
-        const commands = await asyncStmts.getPendingByServer(req.serverName);
-        pendingCache.set(req.serverName, commands);
-        res.json({ success: true, commands });
+        const commands = await pendingCache.load(req.serverName);
+        sendCommands(req, res, pendingCache.forGameMode(commands, gameMode));
     } catch (err) {
         logger.error({ err }, 'Error fetching pending commands');
         res.status(500).json({ error: 'Internal server error' });
     }
 });
 
+router.post('/claim/:serverName', serverAuth, async (req, res) => {
+    try {
+        const limit = Math.min(parseInt(req.body.limit || config.CLAIM_MAX_BATCH, 10) || config.CLAIM_MAX_BATCH,
+            config.CLAIM_MAX_BATCH);
+        const leaseSeconds = Math.max(parseInt(req.body.leaseSeconds || config.CLAIM_LEASE_SECONDS, 10)
+            || config.CLAIM_LEASE_SECONDS, 1);
+        const owner = String(req.body.owner || req.serverName).substring(0, 255);
+
+        const gameMode = requestedGameMode(req.body.gameMode);
+        const capabilities = requestedCapabilities(req.body.capabilities);
+
+        // Most polls find nothing; answer those from the cached pending list
+        // instead of running a locking UPDATE for every poll.
+        const pending = pendingCache.peek(req.serverName) || await pendingCache.load(req.serverName);
+        if (!pendingCache.forGameMode(pending, gameMode).some(cmd => isClaimable(cmd, capabilities))) {
+            return sendCommands(req, res, [], { leaseSeconds });
+        }
+
+        const commands = await asyncStmts.claimPending(req.serverName, gameMode, owner, leaseSeconds, limit, uuidv4(),
+            capabilities);
+        // Claimed rows left the list; an empty claim means the cached list was stale
+        pendingCache.invalidate(req.serverName);
+
+        sendCommands(req, res, commands, { leaseSeconds });
+    } catch (err) {
+        logger.error({ err }, 'Error claiming pending commands');
+        res.status(500).json({ error: 'Internal server error' });
+    }
+});
+
+router.post('/report', serverAuth, async (req, res) => {
+    try {
+        let reports;
+        if (req.is(wire.WIRE_TYPE)) {
+            try {
+                reports = wire.decodeReports(req.body);
+            } catch (err) {
+                return res.status(400).json({ error: `Malformed report frame: ${err.message}` });
+            }
+        } else {
+            reports = req.body.reports;
+        }
+
+        if (!Array.isArray(reports) || reports.length === 0) {
+            return res.status(400).json({ error: 'reports must be a non-empty array' });
+        }
+
+        if (reports.length > config.REPORT_MAX_BATCH) {
+            return res.status(400).json({ error: `Maximum ${config.REPORT_MAX_BATCH} reports per batch` });
+        }
+
+        const targets = await asyncStmts.getReportTargets(reports.map(r => String(r.id)));
+        const byId = new Map(targets.map(t => [t.id, t]));
+        const errors = [];
+        let processed = 0;
+
+        for (let i = 0; i < reports.length; i++) {
+            const { id, status, response } = reports[i];
+            const cmd = byId.get(String(id));
+            if (!cmd) {
+                errors.push({ index: i, id, error: 'Command not found' });
+                continue;
+            }
+            if (cmd.server_id !== req.serverName) {
+                errors.push({ index: i, id, error: 'Not authorized for this command' });
+                continue;
+            }
+
+            switch (status) {
+                case 'EXECUTED':
+                    await asyncStmts.markExecuted(response || null, cmd.id);
+                    if (cmd.group_id) {
+                        await asyncStmts.cancelGroupExcept(cmd.group_id, cmd.id);
+                    }
+                    break;
+                case 'FAILED':
+                    await asyncStmts.markFailed(response || 'Unknown error', cmd.id);
+                    break;
+                case 'SKIPPED':
+                    await asyncStmts.markSkipped(response || 'Player not online on this server', cmd.id);
+                    break;
+                case 'RELEASED':
+                    await asyncStmts.releaseClaim(cmd.id);
+                    break;
+                case 'DEFERRED':
+                    await asyncStmts.deferClaim(cmd.id, config.CLAIM_DEFER_SECONDS);
+                    break;
+                default:
+                    errors.push({ index: i, id, error: 'Invalid status' });
+                    continue;
+            }
+            processed++;
+        }
+
+        pendingCache.invalidate(req.serverName);
+
+        res.json({
+            success: true,
+            processed,
+            errors: errors.length > 0 ? errors : undefined,
+        });
+    } catch (err) {
+        logger.error({ err }, 'Error applying report batch');
+        res.status(500).json({ error: 'Internal server error' });
+    }
+});
+
+router.post('/:id/release', serverAuth, async (req, res) => {
+    try {
+        const cmd = await asyncStmts.getById(req.params.id);
+        if (!cmd) {
+            return res.status(404).json({ error: 'Command not found' });
+        }
+
+        if (cmd.server_id !== req.serverName) {
+            return res.status(403).json({ error: 'Not authorized for this command' });
+        }
+
+        const result = await asyncStmts.releaseClaim(req.params.id);
+        pendingCache.invalidate(cmd.server_id);
+
+        res.json({ success: true, released: result.changes > 0 });
+    } catch (err) {
+        logger.error({ err }, 'Error releasing command');
+        res.status(500).json({ error: 'Internal server error' });
+    }
+});
+
 router.post('/:id/complete', combinedAuth, async (req, res) => {
     try {
         const cmd = await asyncStmts.getById(req.params.id);
@@ -172,7 +404,7 @@ router.post('/:id/complete', combinedAuth, async (req, res) => {
             await asyncStmts.cancelGroupExcept(cmd.group_id, req.params.id);
         }
 
-        pendingCache.delete(cmd.server_id);
+        pendingCache.invalidate(cmd.server_id);
 
         res.json({
             success: true,
@@ -198,7 +430,7 @@ router.post('/:id/fail', combinedAuth, async (req, res) => {
         const response = req.body.error || req.body.response || 'Unknown error';
         await asyncStmts.markFailed(response, req.params.id);
 
-        pendingCache.delete(cmd.server_id);
+        pendingCache.invalidate(cmd.server_id);
 
         res.json({ success: true, message: 'Command marked as failed' });
     } catch (err) {
@@ -221,7 +453,7 @@ router.post('/:id/skip', combinedAuth, async (req, res) => {
         const response = req.body.response || 'Player not online on this server';
         await asyncStmts.markSkipped(response, req.params.id);
 
-        pendingCache.delete(cmd.server_id);
+        pendingCache.invalidate(cmd.server_id);
 
         res.json({ success: true, message: 'Command skipped' });
     } catch (err) {
@@ -250,7 +482,7 @@ router.delete('/:id', masterAuth, async (req, res) => {
             return res.status(404).json({ error: 'Command not found' });
         }
         await asyncStmts.markCancelled(req.params.id);
-        pendingCache.delete(cmd.server_id);
+        pendingCache.invalidate(cmd.server_id);
         res.json({ success: true, message: 'Command cancelled' });
     } catch (err) {
         logger.error({ err }, 'Error cancelling command');
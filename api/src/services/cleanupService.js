@@ -2,6 +2,8 @@ const { asyncStmts } = require('../database');
 const config = require('../config');
 const logger = require('../logger');
 
+let running = false;
+
 async function cleanupExpiredCommands() {
     try {
         const result = await asyncStmts.expireOld();
@@ -13,6 +15,17 @@ async function cleanupExpiredCommands() {
     }
 }
 
+async function releaseExpiredLeases() {
+    try {
+        const result = await asyncStmts.releaseExpiredLeases();
+        if (result.changes > 0) {
+            logger.info({ released: result.changes }, 'Released expired command leases');
+        }
+    } catch (err) {
+        logger.error({ err }, 'Error releasing expired leases');
+    }
+}
+
 function getPreviousBusinessDay() {
     const now = new Date();
     const day = now.getDay();
@@ -28,22 +41,55 @@ async function purgeOldCompletedCommands() {
         const cutoff = getPreviousBusinessDay();
         const result = await asyncStmts.purgeOldCompleted(cutoff);
         if (result.changes > 0) {
-            logger.info({ purged: result.changes, cutoff }, 'Purged old commands');
+            logger.info({ purged: result.changes, cutoff, archived: config.ARCHIVE_ENABLED }, 'Purged old commands');
         }
     } catch (err) {
         logger.error({ err }, 'Error purging old commands');
     }
 }
 
+async function maintainArchive() {
+    if (!config.ARCHIVE_ENABLED) return;
+    try {
+        const dropped = await asyncStmts.maintainArchivePartitions(config.ARCHIVE_RETENTION_DAYS);
+        if (dropped.length > 0) {
+            logger.info({ dropped }, 'Dropped archive partitions');
+        }
+    } catch (err) {
+        logger.error({ err }, 'Error maintaining archive partitions');
+    }
+}
+
+/**
+ * Runs the housekeeping steps one after another. Each step works in small
+ * chunks with pauses in between, so a long pass must not overlap the next
+ * interval.
+ */
+async function runCleanup() {
+    if (running) {
+        logger.warn('Previous cleanup pass still running, skipping');
+        return;
+    }
+    running = true;
+    try {
+        await releaseExpiredLeases();
+        await cleanupExpiredCommands();
+        await maintainArchive();
+        await purgeOldCompletedCommands();
+    } finally {
+        running = false;
+    }
+}
+
 function startCleanupJob() {
-    cleanupExpiredCommands();
-    purgeOldCompletedCommands();
+    runCleanup();
     const intervalMs = config.CLEANUP_INTERVAL_MINUTES * 60 * 1000;
-    setInterval(() => {
-        cleanupExpiredCommands();
-        purgeOldCompletedCommands();
-    }, intervalMs);
-    logger.info({ intervalMinutes: config.CLEANUP_INTERVAL_MINUTES }, 'Cleanup job started');
+    setInterval(runCleanup, intervalMs);
+    logger.info({
+        intervalMinutes: config.CLEANUP_INTERVAL_MINUTES,
+        chunkSize: config.CLEANUP_CHUNK_SIZE,
+        archive: config.ARCHIVE_ENABLED,
+    }, 'Cleanup job started');
 }
 
 module.exports = { startCleanupJob };
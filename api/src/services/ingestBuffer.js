@@ -0,0 +1,106 @@
+const { insertBulkAsync } = require('../database');
+const config = require('../config');
+const logger = require('../logger');
+const pendingCache = require('./pendingCache');
+
+/**
+ * Optional write-behind buffer for bulk ingestion. Accepted commands are
+ * held in memory and written with insertBulkAsync every INGEST_FLUSH_MS or
+ * once INGEST_FLUSH_ROWS are waiting, so bursts from upstream systems become
+ * a few large transactions instead of many small ones.
+ *
+ * Buffered commands are not durable until flushed; callers get 202 and the
+ * generated ids. A failed batch is retried ahead of new rows, up to
+ * INGEST_MAX_ATTEMPTS times. After that it is split in half so one bad row
+ * cannot hold back the rest. A single row that still fails is dropped and
+ * logged in full so it can be replayed by hand.
+ */
+const queue = [];
+const retries = [];
+let timer = null;
+let flushing = null;
+
+function isEnabled() {
+    return config.INGEST_BUFFER_ENABLED;
+}
+
+function size() {
+    return retries.reduce((sum, entry) => sum + entry.rows.length, queue.length);
+}
+
+/**
+ * Returns false without buffering anything when the commands would push the
+ * buffer past INGEST_MAX_BUFFERED.
+ */
+function enqueue(commands) {
+    if (size() + commands.length > config.INGEST_MAX_BUFFERED) {
+        return false;
+    }
+    queue.push(...commands);
+    if (queue.length >= config.INGEST_FLUSH_ROWS) {
+        flush();
+    } else if (!timer) {
+        timer = setTimeout(flush, config.INGEST_FLUSH_MS);
+    }
+    return true;
+}
+
+function flush() {
+    if (timer) {
+        clearTimeout(timer);
+        timer = null;
+    }
+    if (flushing || size() === 0) return flushing || Promise.resolve();
+
+    const entry = retries.length > 0
+        ? retries.shift()
+        : { rows: queue.splice(0, config.INGEST_FLUSH_ROWS), attempts: 0 };
+    const batch = entry.rows;
+    const started = Date.now();
+    flushing = insertBulkAsync(batch)
+        .then(() => {
+            pendingCache.invalidate(batch.map(cmd => cmd.serverId));
+            logger.debug({ rows: batch.length, ms: Date.now() - started }, 'Flushed ingest buffer');
+        })
+        .catch(err => requeue(entry, err))
+        .finally(() => {
+            flushing = null;
+            if (size() > 0 && !timer) {
+                timer = setTimeout(flush, config.INGEST_FLUSH_MS);
+            }
+        });
+    return flushing;
+}
+
+function requeue(entry, err) {
+    const attempts = entry.attempts + 1;
+    if (attempts < config.INGEST_MAX_ATTEMPTS) {
+        retries.unshift({ rows: entry.rows, attempts });
+        logger.error({ err, rows: entry.rows.length, attempts }, 'Ingest buffer flush failed, will retry');
+    } else if (entry.rows.length > 1) {
+        const half = Math.ceil(entry.rows.length / 2);
+        retries.unshift({ rows: entry.rows.slice(0, half), attempts: 0 }, { rows: entry.rows.slice(half), attempts: 0 });
+        logger.error({ err, rows: entry.rows.length, attempts }, 'Ingest buffer flush keeps failing, splitting batch');
+    } else {
+        logger.error({ err, command: entry.rows[0], attempts }, 'Dropping buffered command that cannot be inserted');
+    }
+}
+
+/**
+ * Flushes until the buffer is empty or a flush makes no progress. Anything
+ * left at that point is lost with the process, so its ids are logged.
+ */
+async function drain() {
+    while (size() > 0 || flushing) {
+        const before = size();
+        await flush();
+        if (!flushing && size() >= before) break;
+    }
+    const dropped = retries.flatMap(entry => entry.rows).concat(queue);
+    if (dropped.length > 0) {
+        logger.error({ rows: dropped.length, ids: dropped.map(cmd => cmd.id) },
+            'Ingest buffer not drained before shutdown, commands dropped');
+    }
+}
+
+module.exports = { isEnabled, size, enqueue, flush, drain };
@@ -0,0 +1,63 @@
+const { LRUCache } = require('lru-cache');
+const { asyncStmts } = require('../database');
+const config = require('../config');
+
+/**
+ * Short-lived per-server cache of claimable command lists. Lists hold every
+ * game mode; callers narrow them with forGameMode() for the polling server.
+ * /claim reads it to skip the locking UPDATE when a server has nothing to
+ * lease. Writes invalidate the affected servers. Only time-based changes (a
+ * lease running out, a deferred row becoming available) wait for the TTL.
+ *
+ * Concurrent misses for the same server share one in-flight query. Each
+ * server also has a generation counter that is bumped on invalidation, so a
+ * load that started before a write cannot repopulate the cache with a list
+ * that is already stale.
+ */
+const cache = new LRUCache({
+    max: 200,
+    ttl: config.PENDING_CACHE_TTL_MS,
+});
+
+const inflight = new Map();
+const generations = new Map();
+
+function peek(serverName) {
+    return cache.get(serverName);
+}
+
+function load(serverName) {
+    const pending = inflight.get(serverName);
+    if (pending) return pending;
+
+    const generation = generations.get(serverName) || 0;
+    const promise = asyncStmts.getPendingByServer(serverName, null)
+        .then(commands => {
+            if ((generations.get(serverName) || 0) === generation) {
+                cache.set(serverName, commands);
+            }
+            return commands;
+        })
+        .finally(() => {
+            if (inflight.get(serverName) === promise) inflight.delete(serverName);
+        });
+
+    inflight.set(serverName, promise);
+    return promise;
+}
+
+function forGameMode(commands, gameMode) {
+    if (!gameMode) return commands;
+    const wanted = gameMode.toLowerCase();
+    return commands.filter(cmd => !cmd.game_mode || cmd.game_mode.toLowerCase() === wanted);
+}
+
+function invalidate(serverNames) {
+    for (const serverName of new Set([].concat(serverNames))) {
+        generations.set(serverName, (generations.get(serverName) || 0) + 1);
+        cache.delete(serverName);
+        inflight.delete(serverName);
+    }
+}
+
+module.exports = { peek, load, forGameMode, invalidate };
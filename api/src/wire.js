@@ -0,0 +1,143 @@
+/**
+ * Compact binary framing for plugin traffic (pending lists and batched reports).
+ *
+ * Frame layout: u8 version, varint count, then `count` records. Strings are
+ * encoded as varint(byteLength + 1) followed by UTF-8 bytes; a zero length
+ * prefix means null. Enumerations are sent as a single byte index. Since
+ * version 2 each command record ends with a varint script line count and the
+ * script lines; version 3 then appends the execution conditions (permission,
+ * world, and minOnline/maxOnline as varint(value + 1), zero meaning unset).
+ */
+const WIRE_TYPE = 'application/vnd.pluginrcon.frame';
+const WIRE_VERSION = 3;
+
+const EXECUTION_TYPES = ['INSTANT', 'REQUIRE_ONLINE', 'BROADCAST_ONLINE'];
+const REPORT_STATUSES = ['EXECUTED', 'FAILED', 'SKIPPED', 'RELEASED', 'DEFERRED'];
+
+class FrameWriter {
+    constructor() {
+        this.chunks = [];
+    }
+
+    byte(value) {
+        this.chunks.push(Buffer.from([value & 0xff]));
+    }
+
+    varint(value) {
+        const bytes = [];
+        let v = value >>> 0;
+        while (v >= 0x80) {
+            bytes.push((v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        bytes.push(v);
+        this.chunks.push(Buffer.from(bytes));
+    }
+
+    string(value) {
+        if (value === null || value === undefined) {
+            this.varint(0);
+            return;
+        }
+        const buf = Buffer.from(String(value), 'utf8');
+        this.varint(buf.length + 1);
+        this.chunks.push(buf);
+    }
+
+    toBuffer() {
+        return Buffer.concat(this.chunks);
+    }
+}
+
+class FrameReader {
+    constructor(buf) {
+        this.buf = buf;
+        this.offset = 0;
+    }
+
+    byte() {
+        if (this.offset >= this.buf.length) throw new Error('Truncated frame');
+        return this.buf[this.offset++];
+    }
+
+    varint() {
+        let result = 0;
+        let shift = 0;
+        for (;;) {
+            const b = this.byte();
+            result |= (b & 0x7f) << shift;
+            if ((b & 0x80) === 0) return result >>> 0;
+            shift += 7;
+            if (shift > 28) throw new Error('Malformed varint');
+        }
+    }
+
+    string() {
+        const len = this.varint();
+        if (len === 0) return null;
+        const end = this.offset + len - 1;
+        if (end > this.buf.length) throw new Error('Truncated frame');
+        const value = this.buf.toString('utf8', this.offset, end);
+        this.offset = end;
+        return value;
+    }
+}
+
+function encodeCommands(rows) {
+    const w = new FrameWriter();
+    w.byte(WIRE_VERSION);
+    w.varint(rows.length);
+    for (const row of rows) {
+        w.string(row.id);
+        w.string(row.game_mode);
+        w.string(row.command);
+        w.string(row.player);
+        w.byte(Math.max(EXECUTION_TYPES.indexOf(row.execution_type), 0));
+        w.string(row.group_id);
+        const script = parseJson(row.script);
+        w.varint(script ? script.length : 0);
+        if (script) {
+            for (const line of script) w.string(line);
+        }
+        const conditions = parseJson(row.conditions) || {};
+        w.string(conditions.permission);
+        w.string(conditions.world);
+        w.varint(Number.isInteger(conditions.minOnline) ? conditions.minOnline + 1 : 0);
+        w.varint(Number.isInteger(conditions.maxOnline) ? conditions.maxOnline + 1 : 0);
+    }
+    return w.toBuffer();
+}
+
+function parseJson(value) {
+    if (!value) return null;
+    return typeof value === 'string' ? JSON.parse(value) : value;
+}
+
+function decodeReports(buf) {
+    if (!Buffer.isBuffer(buf)) throw new Error('Expected binary body');
+    const r = new FrameReader(buf);
+    const version = r.byte();
+    if (version < 1 || version > WIRE_VERSION) throw new Error(`Unsupported frame version: ${version}`);
+
+    const count = r.varint();
+    const reports = [];
+    for (let i = 0; i < count; i++) {
+        const id = r.string();
+        const status = REPORT_STATUSES[r.byte()];
+        const response = r.string();
+        reports.push({ id, status, response });
+    }
+    return reports;
+}
+
+function prefersWire(req) {
+    return req.accepts(['application/json', WIRE_TYPE]) === WIRE_TYPE;
+}
+
+module.exports = {
+    WIRE_TYPE,
+    REPORT_STATUSES,
+    encodeCommands,
+    decodeReports,
+    prefersWire,
+};
@@ -0,0 +1,47 @@
+const test = require('node:test');
+const assert = require('node:assert');
+const { randomUUID } = require('node:crypto');
+
+// Runs against the MySQL database configured by the usual DB_* variables.
+// Rows are written for a throwaway server id and cancelled afterwards.
+const enabled = process.env.TEST_DATABASE === 'true';
+
+test('a full batch of deferred rows does not block newer pending rows', { skip: !enabled && 'TEST_DATABASE is not set' },
+    async () => {
+        const { initDatabase, asyncStmts, insertBulkAsync, shutdown } = require('../src/database');
+        await initDatabase();
+
+        const serverId = `claim-test-${randomUUID()}`;
+        const batchSize = 5;
+        const expiresAt = new Date(Date.now() + 3600 * 1000).toISOString().replace('T', ' ').substring(0, 19);
+        const row = () => ({
+            id: randomUUID(), serverId, command: 'say test', executionType: 'REQUIRE_ONLINE', player: 'Absent', expiresAt,
+        });
+        const ids = [];
+
+        try {
+            const parked = Array.from({ length: batchSize }, row);
+            ids.push(...parked.map(cmd => cmd.id));
+            await insertBulkAsync(parked);
+
+            const first = await asyncStmts.claimPending(serverId, null, 'test', 30, batchSize, randomUUID());
+            assert.strictEqual(first.length, batchSize);
+            for (const cmd of first) {
+                await asyncStmts.deferClaim(cmd.id, 60);
+            }
+
+            // created_at has second precision; make the new row strictly newer
+            await new Promise(resolve => setTimeout(resolve, 1100));
+            const newer = row();
+            ids.push(newer.id);
+            await insertBulkAsync([newer]);
+
+            const second = await asyncStmts.claimPending(serverId, null, 'test', 30, batchSize, randomUUID());
+            assert.deepStrictEqual(second.map(cmd => cmd.id), [newer.id]);
+        } finally {
+            for (const id of ids) {
+                await asyncStmts.markCancelled(id);
+            }
+            await shutdown();
+        }
+    });
@@ -0,0 +1,52 @@
+const test = require('node:test');
+const assert = require('node:assert');
+const wire = require('../src/wire');
+
+// Frame produced by the plugin's WireCodec.encodeReports (version 3) for:
+// a1 EXECUTED "OK", b2 RELEASED null, c3 FAILED "żółw".
+const PLUGIN_REPORTS_V3 = '030303613100034f4b03623203000363330108c5bcc3b3c58277';
+
+const COMMANDS = [
+    {
+        id: 'a1', game_mode: 'skyblock', command: 'give %player% diamond 1', player: 'Steve',
+        execution_type: 'REQUIRE_ONLINE', group_id: null, script: null, conditions: null,
+    },
+    {
+        id: 'b2', game_mode: null, command: 'say hi', player: null, execution_type: 'INSTANT', group_id: 'g1',
+        script: JSON.stringify(['say hi', 'say żółw']), conditions: { permission: 'vip.use', minOnline: 0, maxOnline: 5 },
+    },
+];
+
+// Must stay identical to the fixture in the plugin's WireCodecTest.
+const COMMANDS_V3 = '030203613109736b79626c6f636b18676976652025706c6179657225206469616d6f6e642031065374657665010000000000'
+    + '000362320007736179206869000003673102077361792068690c73617920c5bcc3b3c58277087669702e757365000106';
+
+test('encodeCommands matches the frame the plugin decodes', () => {
+    assert.strictEqual(wire.encodeCommands(COMMANDS).toString('hex'), COMMANDS_V3);
+});
+
+test('decodeReports reads a frame written by the plugin', () => {
+    assert.deepStrictEqual(wire.decodeReports(Buffer.from(PLUGIN_REPORTS_V3, 'hex')), [
+        { id: 'a1', status: 'EXECUTED', response: 'OK' },
+        { id: 'b2', status: 'RELEASED', response: null },
+        { id: 'c3', status: 'FAILED', response: 'żółw' },
+    ]);
+});
+
+test('decodeReports accepts versions 1 to 3 with the same record layout', () => {
+    for (const version of [1, 2, 3]) {
+        const frame = Buffer.from(PLUGIN_REPORTS_V3, 'hex');
+        frame[0] = version;
+        assert.strictEqual(wire.decodeReports(frame).length, 3);
+    }
+});
+
+test('report statuses keep the plugin enum order', () => {
+    // Report.Status in the plugin: the byte on the wire is the ordinal
+    assert.deepStrictEqual(wire.REPORT_STATUSES, ['EXECUTED', 'FAILED', 'SKIPPED', 'RELEASED', 'DEFERRED']);
+});
+
+test('decodeReports rejects unknown versions and truncated frames', () => {
+    assert.throws(() => wire.decodeReports(Buffer.from('0400', 'hex')), /Unsupported frame version/);
+    assert.throws(() => wire.decodeReports(Buffer.from(PLUGIN_REPORTS_V3.slice(0, 20), 'hex')), /Truncated frame/);
+});
@@ -6,7 +6,14 @@ import pl.pluginrcon.command.AdminCommand;
 import pl.pluginrcon.command.CommandProcessor;
 import pl.pluginrcon.config.ConfigManager;
 import pl.pluginrcon.persistence.ExecutionLog;
-import pl.pluginrcon.task.PullTask;
+import pl.pluginrcon.source.CommandSource;
+import pl.pluginrcon.source.HttpCommandSource;
+import pl.pluginrcon.source.InProcessCommandSource;
+import pl.pluginrcon.source.SpoolCommandSource;
+import pl.pluginrcon.trace.TraceBuffer;
+
+import java.util.ArrayList;
+import java.util.List;
 
 public class PluginRcon extends JavaPlugin {
 
@@ -14,17 +21,22 @@ public class PluginRcon extends JavaPlugin {
     private ApiClient apiClient;
     private CommandProcessor commandProcessor;
     private ExecutionLog executionLog;
-    private PullTask pullTask;
+    private TraceBuffer traceBuffer;
+    private final List<CommandSource> sources = new ArrayList<>();
+    private HttpCommandSource httpSource;
     private int flushTaskId = -1;
 
     @Override
     public void onEnable() {
         configManager = new ConfigManager(this);
+        traceBuffer = new TraceBuffer(configManager.getTraceCapacity(), configManager.isTraceEnabled());
         executionLog = new ExecutionLog(this);
         apiClient = new ApiClient(this);
         commandProcessor = new CommandProcessor(this);
+        commandProcessor.startCatchUp(configManager.getCatchUpSeconds() * 1000L,
+                configManager.getCatchUpInitialPerTick(), configManager.getCatchUpMaxPerTick());
 
-        startPullTask();
+        startSources();
         startFlushTask();
 
         var cmd = getCommand("pluginrcon");
@@ -43,10 +55,13 @@ public class PluginRcon extends JavaPlugin {
             getServer().getScheduler().cancelTask(flushTaskId);
         }
 
-        if (pullTask != null) {
-            pullTask.cancel();
+        // Hand queued catch-up commands back while their sources can still take reports
+        if (commandProcessor != null) {
+            commandProcessor.stopCatchUp();
         }
 
+        stopSources();
+
         if (executionLog != null) {
             executionLog.forceSave();
         }
@@ -66,28 +81,48 @@ public class PluginRcon extends JavaPlugin {
             flushTaskId = -1;
         }
 
-        if (pullTask != null) {
-            pullTask.cancel();
-            pullTask = null;
-        }
+        stopSources();
 
         configManager.reload();
+        traceBuffer.setEnabled(configManager.isTraceEnabled());
         commandProcessor.clearProcessedCache();
         apiClient.shutdown();
         apiClient = new ApiClient(this);
 
-        startPullTask();
+        startSources();
         startFlushTask();
 
         getLogger().info("PluginRCON reloaded - Server: " + configManager.getServerName());
     }
 
-    private void startPullTask() {
-        pullTask = new PullTask(this);
-        long intervalTicks = configManager.getPullInterval() * 20L;
-        long offsetTicks = configManager.getPullOffset() * 20L;
-        long initialDelay = 40L + offsetTicks;
-        pullTask.runTaskTimerAsynchronously(this, initialDelay, intervalTicks);
+    private void startSources() {
+        httpSource = new HttpCommandSource(this);
+        sources.add(httpSource);
+        if (configManager.isInProcessSource()) {
+            sources.add(new InProcessCommandSource(this));
+        }
+        if (configManager.isSpoolEnabled()) {
+            sources.add(new SpoolCommandSource(this, getDataFolder().toPath().resolve(configManager.getSpoolDirectory()),
+                    configManager.getSpoolBatchSize()));
+        }
+        for (CommandSource source : sources) {
+            source.start(commandProcessor);
+        }
+    }
+
+    private void stopSources() {
+        // Parked local commands would otherwise be retried against a stopped source
+        if (commandProcessor != null) {
+            commandProcessor.cancelParkedRetries();
+        }
+        for (CommandSource source : sources) {
+            try {
+                source.stop();
+            } catch (Exception e) {
+                logWarning("Failed to stop " + source.getName() + " source: " + e.getMessage());
+            }
+        }
+        sources.clear();
     }
 
     private void startFlushTask() {
@@ -95,6 +130,10 @@ public class PluginRcon extends JavaPlugin {
                 () -> executionLog.flushIfDirty(), 200L, 200L).getTaskId();
     }
 
+    public boolean isDebug() {
+        return configManager.isDebug();
+    }
+
     public void logDebug(String message) {
         if (configManager.isDebug()) {
             getLogger().info("[DEBUG] " + message);
@@ -107,6 +146,9 @@ public class PluginRcon extends JavaPlugin {
 
     public ConfigManager getConfigManager() { return configManager; }
     public ApiClient getApiClient() { return apiClient; }
+    public HttpCommandSource getHttpSource() { return httpSource; }
+    public List<CommandSource> getSources() { return sources; }
     public CommandProcessor getCommandProcessor() { return commandProcessor; }
     public ExecutionLog getExecutionLog() { return executionLog; }
+    public TraceBuffer getTrace() { return traceBuffer; }
 }
@@ -5,27 +5,50 @@ import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import pl.pluginrcon.PluginRcon;
+import pl.pluginrcon.jfr.ApiRequestEvent;
+import pl.pluginrcon.jfr.DecodeEvent;
+import pl.pluginrcon.jfr.ReportEvent;
+import pl.pluginrcon.model.ExecutionConditions;
 import pl.pluginrcon.model.RemoteCommand;
+import pl.pluginrcon.trace.TraceBuffer;
+import pl.pluginrcon.trace.TraceEvent;
 
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Queue;
+import java.util.UUID;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ApiClient {
 
     private static final int MAX_RETRIES = 3;
     private static final long RETRY_BASE_DELAY_MS = 500;
+    private static final int REPORT_BATCH_MAX = 200;
+    private static final long REPORT_FLUSH_DELAY_MS = 50;
+    private static final long MIN_HEDGE_DELAY_MS = 20;
+    private static final long DEFAULT_HEDGE_DELAY_MS = 250;
+    /** Sent with every claim; the API leases script and condition rows only to plugins that declare them. */
+    private static final String[] CAPABILITIES = {"scripts", "conditions"};
 
     private final PluginRcon plugin;
     private final Gson gson = new Gson();
     private final HttpClient httpClient;
     private final ScheduledExecutorService executor;
+    private final String claimOwner;
+    private final boolean binaryWire;
+    private final boolean hedgePolls;
+    private final List<ApiEndpoint> endpoints;
+    private final Queue<Report> reportQueue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean reportFlushScheduled = new AtomicBoolean(false);
 
     public ApiClient(PluginRcon plugin) {
         this.plugin = plugin;
@@ -39,80 +62,80 @@ public class ApiClient {
                 .connectTimeout(Duration.ofMillis(plugin.getConfigManager().getConnectionTimeout()))
                 .executor(executor)
                 .build();
+        this.claimOwner = plugin.getConfigManager().getServerName() + "/" + UUID.randomUUID();
+        this.binaryWire = plugin.getConfigManager().isBinaryWire();
+        this.hedgePolls = plugin.getConfigManager().isHedgePolls();
+        List<ApiEndpoint> list = new ArrayList<>();
+        for (String url : plugin.getConfigManager().getApiUrls()) {
+            list.add(new ApiEndpoint(url));
+        }
+        this.endpoints = Collections.unmodifiableList(list);
     }
 
-    public CompletableFuture<List<RemoteCommand>> fetchPendingCommands() {
-        String serverName = plugin.getConfigManager().getServerName();
-        String url = plugin.getConfigManager().getApiUrl() + "/api/commands/pending/" + serverName;
+    /**
+     * Leases a batch of pending commands for this server. Leased rows are
+     * hidden from other polls until they are reported, released, or the
+     * lease runs out.
+     */
+    public CompletableFuture<List<RemoteCommand>> claimPendingCommands() {
+        String path = "/api/commands/claim/" + plugin.getConfigManager().getServerName();
+        JsonObject body = new JsonObject();
+        body.addProperty("owner", claimOwner);
+        body.addProperty("limit", plugin.getConfigManager().getPullBatchSize());
+        body.addProperty("leaseSeconds", plugin.getConfigManager().getLeaseSeconds());
+        body.addProperty("gameMode", plugin.getConfigManager().getGameMode());
+        JsonArray capabilities = new JsonArray(CAPABILITIES.length);
+        for (String capability : CAPABILITIES) {
+            capabilities.add(capability);
+        }
+        body.add("capabilities", capabilities);
 
-        return sendGetAsync(url).thenApply(response -> {
-            if (response == null || !response.has("commands")) {
-                return Collections.<RemoteCommand>emptyList();
-            }
-            JsonArray arr = response.getAsJsonArray("commands");
-            List<RemoteCommand> commands = new ArrayList<>(arr.size());
-            for (JsonElement el : arr) {
-                commands.add(parseCommand(el.getAsJsonObject()));
-            }
-            return commands;
-        }).exceptionally(e -> {
-            plugin.logWarning("Failed to fetch pending commands: " + e.getMessage());
-            return Collections.emptyList();
-        });
+        return fetchCommands(path, gson.toJson(body), true)
+                .exceptionally(e -> {
+                    plugin.logWarning("Failed to claim pending commands: " + e.getMessage());
+                    return Collections.emptyList();
+                });
     }
 
     public CompletableFuture<List<RemoteCommand>> fetchQueuedForPlayer(String playerName) {
-        String serverName = plugin.getConfigManager().getServerName();
-        String url = plugin.getConfigManager().getApiUrl()
-                + "/api/commands/queued/" + serverName + "/" + playerName;
+        String path = "/api/commands/queued/" + plugin.getConfigManager().getServerName() + "/" + playerName;
 
-        return sendGetAsync(url).thenApply(response -> {
-            if (response == null || !response.has("commands")) {
-                return Collections.<RemoteCommand>emptyList();
-            }
-            JsonArray arr = response.getAsJsonArray("commands");
-            List<RemoteCommand> commands = new ArrayList<>(arr.size());
-            for (JsonElement el : arr) {
-                commands.add(parseCommand(el.getAsJsonObject()));
-            }
-            return commands;
-        }).exceptionally(e -> {
-            plugin.logWarning("Failed to fetch queued commands for " + playerName + ": " + e.getMessage());
-            return Collections.emptyList();
-        });
+        return fetchCommands(path, null, false)
+                .exceptionally(e -> {
+                    plugin.logWarning("Failed to fetch queued commands for " + playerName + ": " + e.getMessage());
+                    return Collections.emptyList();
+                });
     }
 
     public void reportComplete(String commandId, String response) {
-        String url = plugin.getConfigManager().getApiUrl() + "/api/commands/" + commandId + "/complete";
-        JsonObject body = new JsonObject();
-        body.addProperty("response", response);
-        sendPostAsync(url, body, "complete", commandId);
+        enqueueReport(new Report(commandId, Report.Status.EXECUTED, response));
     }
 
     public void reportFailed(String commandId, String error) {
-        String url = plugin.getConfigManager().getApiUrl() + "/api/commands/" + commandId + "/fail";
-        JsonObject body = new JsonObject();
-        body.addProperty("error", error);
-        sendPostAsync(url, body, "failed", commandId);
+        enqueueReport(new Report(commandId, Report.Status.FAILED, error));
     }
 
     public void reportQueued(String commandId) {
-        String url = plugin.getConfigManager().getApiUrl() + "/api/commands/" + commandId + "/queue";
-        sendPostAsync(url, new JsonObject(), "queued", commandId);
+        sendPostAsync("/api/commands/" + commandId + "/queue", new JsonObject(), "queued", commandId);
+    }
+
+    public void releaseCommand(String commandId) {
+        enqueueReport(new Report(commandId, Report.Status.RELEASED, null));
+    }
+
+    /** Releases the lease but keeps the command out of claims for a while (CLAIM_DEFER_SECONDS on the API). */
+    public void deferCommand(String commandId) {
+        enqueueReport(new Report(commandId, Report.Status.DEFERRED, null));
     }
 
     public void reportSkipped(String commandId, String reason) {
-        String url = plugin.getConfigManager().getApiUrl() + "/api/commands/" + commandId + "/skip";
-        JsonObject body = new JsonObject();
-        body.addProperty("response", reason);
-        sendPostAsync(url, body, "skipped", commandId);
+        enqueueReport(new Report(commandId, Report.Status.SKIPPED, reason));
     }
 
     public CompletableFuture<List<String>> fetchNetworkServers() {
-        String serverName = plugin.getConfigManager().getServerName();
-        String url = plugin.getConfigManager().getApiUrl() + "/api/servers/network/" + serverName;
+        String path = "/api/servers/network/" + plugin.getConfigManager().getServerName();
 
-        return sendGetAsync(url).thenApply(response -> {
+        return sendGetAsync(path).thenApply(response -> {
             if (response == null || !response.has("servers")) {
                 return Collections.<String>emptyList();
             }
@@ -128,7 +151,45 @@ public class ApiClient {
         });
     }
 
+    /**
+     * Opens connections to every endpoint and exercises the decoding path so
+     * the first real poll doesn't pay for DNS, handshakes and class loading.
+     * Completes with true as soon as any endpoint answers its health check.
+     */
+    public CompletableFuture<Boolean> warmUp() {
+        WireCodec.decodeCommands(new byte[] {3, 0});
+        parseCommands(gson.fromJson("{\"commands\":[]}", JsonObject.class));
+
+        CompletableFuture<Boolean> reachable = new CompletableFuture<>();
+        AtomicInteger remaining = new AtomicInteger(endpoints.size());
+        for (ApiEndpoint endpoint : endpoints) {
+            HttpRequest request = buildRequest(endpoint.getUrl() + "/api/health", "GET", null);
+            sendAsync(endpoint, request, HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((resp, ex) -> {
+                        if (ex == null && resp.statusCode() == 200) {
+                            reachable.complete(true);
+                        } else if (plugin.isDebug()) {
+                            plugin.logDebug("Warm-up of " + endpoint.getUrl() + " failed: "
+                                    + (ex != null ? ex.getMessage() : "HTTP " + resp.statusCode()));
+                        }
+                        if (remaining.decrementAndGet() == 0) {
+                            reachable.complete(false);
+                        }
+                    });
+        }
+        return reachable;
+    }
+
+    public List<String> describeEndpoints() {
+        List<String> result = new ArrayList<>(endpoints.size());
+        for (ApiEndpoint endpoint : endpoints) {
+            result.add(endpoint.describe());
+        }
+        return result;
+    }
+
     public void shutdown() {
+        flushReportsBlocking();
         executor.shutdown();
         try {
             if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
@@ -140,32 +201,285 @@ public class ApiClient {
         }
     }
 
-    private CompletableFuture<JsonObject> sendGetAsync(String url) {
+    private void enqueueReport(Report report) {
+        plugin.getTrace().record(TraceEvent.REPORT, report.getCommandId(), report.getStatus().ordinal());
+        reportQueue.add(report);
+        if (reportFlushScheduled.compareAndSet(false, true)) {
+            try {
+                executor.schedule(this::flushReports, REPORT_FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                reportFlushScheduled.set(false);
+            }
+        }
+    }
+
+    private void flushReports() {
+        reportFlushScheduled.set(false);
+        List<Report> batch;
+        while (!(batch = drainReports()).isEmpty()) {
+            sendReportAttempt(batch, 0);
+        }
+    }
+
+    private void flushReportsBlocking() {
+        List<Report> batch;
+        while (!(batch = drainReports()).isEmpty()) {
+            try {
+                ApiEndpoint endpoint = selectEndpoint(null);
+                boolean binary = sendsBinaryReports(endpoint);
+                HttpResponse<String> resp = httpClient.send(buildReportRequest(endpoint, batch),
+                        HttpResponse.BodyHandlers.ofString());
+                if (binary && rejectsFrame(resp.statusCode())) {
+                    endpoint.disableBinaryReports();
+                    resp = httpClient.send(buildReportRequest(endpoint, batch), HttpResponse.BodyHandlers.ofString());
+                }
+                if (resp.statusCode() < 200 || resp.statusCode() >= 300) {
+                    plugin.logWarning("Failed to flush " + batch.size() + " reports on shutdown: HTTP " + resp.statusCode());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                plugin.logWarning("Failed to flush " + batch.size() + " reports on shutdown: " + e.getMessage());
+            }
+        }
+    }
+
+    private List<Report> drainReports() {
+        List<Report> batch = new ArrayList<>();
+        Report report;
+        while (batch.size() < REPORT_BATCH_MAX && (report = reportQueue.poll()) != null) {
+            batch.add(report);
+        }
+        return batch;
+    }
+
+    private void sendReportAttempt(List<Report> batch, int attempt) {
+        ApiEndpoint endpoint = selectEndpoint(null);
+        boolean binary = sendsBinaryReports(endpoint);
+        ReportEvent event = new ReportEvent();
+        event.begin();
+
+        sendAsync(endpoint, buildReportRequest(endpoint, batch), HttpResponse.BodyHandlers.ofString())
+                .whenComplete((resp, ex) -> {
+                    commitReportEvent(event, batch.size(), attempt, resp, ex);
+
+                    if (ex != null) {
+                        if (attempt < MAX_RETRIES) {
+                            if (plugin.isDebug()) {
+                                plugin.logDebug("Error reporting batch of " + batch.size() + ", retry " + (attempt + 1)
+                                        + ": " + ex.getMessage());
+                            }
+                            scheduleReportRetry(batch, attempt);
+                        } else {
+                            traceBatch(TraceEvent.REPORT_FAILED, batch, attempt);
+                            plugin.logWarning("Failed to report batch of " + batch.size()
+                                    + " after " + MAX_RETRIES + " retries: " + ex.getMessage());
+                        }
+                        return;
+                    }
+
+                    if (resp.statusCode() >= 200 && resp.statusCode() < 300) {
+                        if (plugin.isDebug()) {
+                            plugin.logDebug("Reported batch of " + batch.size());
+                        }
+                        return;
+                    }
+
+                    if (binary && rejectsFrame(resp.statusCode())) {
+                        endpoint.disableBinaryReports();
+                        plugin.logWarning(endpoint.getUrl() + " rejected a binary report frame (HTTP "
+                                + resp.statusCode() + "), sending reports as JSON");
+                        sendReportAttempt(batch, attempt);
+                        return;
+                    }
+
+                    if (resp.statusCode() >= 500 && attempt < MAX_RETRIES) {
+                        if (plugin.isDebug()) {
+                            plugin.logDebug("Server error " + resp.statusCode() + " for batch of " + batch.size()
+                                    + ", retry " + (attempt + 1));
+                        }
+                        scheduleReportRetry(batch, attempt);
+                        return;
+                    }
+
+                    traceBatch(TraceEvent.REPORT_FAILED, batch, resp.statusCode());
+                    plugin.logWarning("Failed to report batch of " + batch.size()
+                            + ": HTTP " + resp.statusCode());
+                });
+    }
+
+    private void commitReportEvent(ReportEvent event, int batchSize, int attempt, HttpResponse<?> resp, Throwable ex) {
+        event.end();
+        if (!event.shouldCommit()) return;
+        event.batchSize = batchSize;
+        event.attempt = attempt;
+        event.statusCode = resp != null ? resp.statusCode() : 0;
+        boolean ok = ex == null && resp.statusCode() >= 200 && resp.statusCode() < 300;
+        boolean retry = !ok && attempt < MAX_RETRIES && (ex != null || resp.statusCode() >= 500);
+        event.outcome = ok ? "ok" : retry ? "retry" : "failed";
+        event.commit();
+    }
+
+    private void scheduleReportRetry(List<Report> batch, int attempt) {
+        traceBatch(TraceEvent.REPORT_RETRY, batch, attempt + 1);
+        long delay = RETRY_BASE_DELAY_MS * (1L << attempt);
+        executor.schedule(() -> sendReportAttempt(batch, attempt + 1), delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void traceBatch(TraceEvent event, List<Report> batch, long value) {
+        TraceBuffer trace = plugin.getTrace();
+        if (!trace.isEnabled()) return;
+        for (int i = 0; i < batch.size(); i++) {
+            trace.record(event, batch.get(i).getCommandId(), value);
+        }
+    }
+
+    private boolean sendsBinaryReports(ApiEndpoint endpoint) {
+        return binaryWire && endpoint.acceptsBinaryReports();
+    }
+
+    /**
+     * An API without frame support answers 415, or 400 when the raw body
+     * reaches the JSON validation instead.
+     */
+    private static boolean rejectsFrame(int statusCode) {
+        return statusCode == 415 || statusCode == 400;
+    }
+
+    private HttpRequest buildReportRequest(ApiEndpoint endpoint, List<Report> batch) {
+        String url = endpoint.getUrl() + "/api/commands/report";
+        if (sendsBinaryReports(endpoint)) {
+            return buildRequest(url, HttpRequest.BodyPublishers.ofByteArray(WireCodec.encodeReports(batch)),
+                    WireCodec.MEDIA_TYPE);
+        }
+
+        JsonArray reports = new JsonArray(batch.size());
+        for (Report report : batch) {
+            JsonObject obj = new JsonObject();
+            obj.addProperty("id", report.getCommandId());
+            obj.addProperty("status", report.getStatus().name());
+            obj.addProperty("response", report.getResponse());
+            reports.add(obj);
+        }
+        JsonObject body = new JsonObject();
+        body.add("reports", reports);
+        return buildRequest(url, "POST", gson.toJson(body));
+    }
+
+    private CompletableFuture<List<RemoteCommand>> fetchCommands(String path, String body, boolean leased) {
+        ApiEndpoint primary = selectEndpoint(null);
+        ApiEndpoint secondary = selectEndpoint(primary);
+        if (secondary == null) {
+            return sendForCommandsAsync(primary, path, body);
+        }
+        return new HedgedFetch(primary, secondary, path, body, leased).start();
+    }
+
+    private CompletableFuture<List<RemoteCommand>> sendForCommandsAsync(ApiEndpoint endpoint, String path, String body) {
+        HttpRequest request = buildRequest(endpoint.getUrl() + path, body == null ? "GET" : "POST", body);
+        return sendAsync(endpoint, request, HttpResponse.BodyHandlers.ofByteArray())
+                .thenApply(resp -> {
+                    if (resp.statusCode() >= 500) {
+                        throw new IllegalStateException(endpoint.getUrl() + " returned HTTP " + resp.statusCode());
+                    }
+                    if (resp.statusCode() != 200) {
+                        if (plugin.isDebug()) {
+                            plugin.logDebug(request.method() + " " + request.uri() + " returned " + resp.statusCode());
+                        }
+                        return Collections.<RemoteCommand>emptyList();
+                    }
+                    String contentType = resp.headers().firstValue("Content-Type").orElse("");
+                    boolean binary = contentType.startsWith(WireCodec.MEDIA_TYPE);
+                    DecodeEvent event = new DecodeEvent();
+                    event.begin();
+                    List<RemoteCommand> commands = binary
+                            ? WireCodec.decodeCommands(resp.body())
+                            : parseCommands(gson.fromJson(new String(resp.body(), StandardCharsets.UTF_8), JsonObject.class));
+                    event.end();
+                    if (event.shouldCommit()) {
+                        event.format = binary ? "binary" : "json";
+                        event.bytes = resp.body().length;
+                        event.commandCount = commands.size();
+                        event.commit();
+                    }
+                    return commands;
+                });
+    }
+
+    private <T> CompletableFuture<HttpResponse<T>> sendAsync(ApiEndpoint endpoint, HttpRequest request,
+                                                             HttpResponse.BodyHandler<T> handler) {
+        long start = System.nanoTime();
+        ApiRequestEvent event = new ApiRequestEvent();
+        event.begin();
+
+        return httpClient.sendAsync(request, handler).whenComplete((resp, ex) -> {
+            boolean failed = ex != null || resp.statusCode() >= 500;
+            if (failed) {
+                endpoint.recordFailure();
+            } else {
+                endpoint.recordSuccess(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            }
+
+            event.end();
+            if (event.shouldCommit()) {
+                event.endpoint = endpoint.getUrl();
+                event.method = request.method();
+                event.path = request.uri().getPath();
+                event.statusCode = resp != null ? resp.statusCode() : 0;
+                event.failed = failed;
+                event.commit();
+            }
+        });
+    }
+
+    private ApiEndpoint selectEndpoint(ApiEndpoint exclude) {
+        long now = System.currentTimeMillis();
+        ApiEndpoint best = null;
+        ApiEndpoint fallback = null;
+        for (ApiEndpoint endpoint : endpoints) {
+            if (endpoint == exclude) continue;
+            if (fallback == null) fallback = endpoint;
+            if (endpoint.isAvailable(now) && (best == null || endpoint.score() < best.score())) {
+                best = endpoint;
+            }
+        }
+        return best != null ? best : fallback;
+    }
+
+    private CompletableFuture<JsonObject> sendGetAsync(String path) {
+        ApiEndpoint endpoint = selectEndpoint(null);
+        String url = endpoint.getUrl() + path;
         HttpRequest request = buildRequest(url, "GET", null);
-        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+        return sendAsync(endpoint, request, HttpResponse.BodyHandlers.ofString())
                 .thenApply(resp -> {
                     if (resp.statusCode() != 200) {
-                        plugin.logDebug("GET " + url + " returned " + resp.statusCode());
+                        if (plugin.isDebug()) {
+                            plugin.logDebug("GET " + url + " returned " + resp.statusCode());
+                        }
                         return null;
                     }
                     return gson.fromJson(resp.body(), JsonObject.class);
                 });
     }
 
-    private void sendPostAsync(String url, JsonObject body, String action, String commandId) {
-        sendPostAttempt(url, gson.toJson(body), action, commandId, 0);
+    private void sendPostAsync(String path, JsonObject body, String action, String commandId) {
+        sendPostAttempt(path, gson.toJson(body), action, commandId, 0);
     }
 
-    private void sendPostAttempt(String url, String bodyJson, String action, String commandId, int attempt) {
-        HttpRequest request = buildRequest(url, "POST", bodyJson);
+    private void sendPostAttempt(String path, String bodyJson, String action, String commandId, int attempt) {
+        ApiEndpoint endpoint = selectEndpoint(null);
+        HttpRequest request = buildRequest(endpoint.getUrl() + path, "POST", bodyJson);
 
-        httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+        sendAsync(endpoint, request, HttpResponse.BodyHandlers.ofString())
                 .whenComplete((resp, ex) -> {
                     if (ex != null) {
                         if (attempt < MAX_RETRIES) {
-                            plugin.logDebug("Error for " + commandId + ", retry " + (attempt + 1)
-                                    + ": " + ex.getMessage());
-                            scheduleRetry(url, bodyJson, action, commandId, attempt);
+                            if (plugin.isDebug()) {
+                                plugin.logDebug("Error for " + commandId + ", retry " + (attempt + 1)
+                                        + ": " + ex.getMessage());
+                            }
+                            scheduleRetry(path, bodyJson, action, commandId, attempt);
                         } else {
                             plugin.logWarning("Failed to report " + action + " for " + commandId
                                     + " after " + MAX_RETRIES + " retries: " + ex.getMessage());
@@ -174,14 +488,18 @@ public class ApiClient {
                     }
 
                     if (resp.statusCode() >= 200 && resp.statusCode() < 300) {
-                        plugin.logDebug("Reported " + action + ": " + commandId);
+                        if (plugin.isDebug()) {
+                            plugin.logDebug("Reported " + action + ": " + commandId);
+                        }
                         return;
                     }
 
                     if (resp.statusCode() >= 500 && attempt < MAX_RETRIES) {
-                        plugin.logDebug("Server error " + resp.statusCode() + " for " + commandId
-                                + ", retry " + (attempt + 1));
-                        scheduleRetry(url, bodyJson, action, commandId, attempt);
+                        if (plugin.isDebug()) {
+                            plugin.logDebug("Server error " + resp.statusCode() + " for " + commandId
+                                    + ", retry " + (attempt + 1));
+                        }
+                        scheduleRetry(path, bodyJson, action, commandId, attempt);
                         return;
                     }
 
@@ -190,29 +508,49 @@ public class ApiClient {
                 });
     }
 
-    private void scheduleRetry(String url, String bodyJson, String action, String commandId, int attempt) {
+    private void scheduleRetry(String path, String bodyJson, String action, String commandId, int attempt) {
         long delay = RETRY_BASE_DELAY_MS * (1L << attempt);
         executor.schedule(
-                () -> sendPostAttempt(url, bodyJson, action, commandId, attempt + 1),
+                () -> sendPostAttempt(path, bodyJson, action, commandId, attempt + 1),
                 delay, TimeUnit.MILLISECONDS
         );
     }
 
     private HttpRequest buildRequest(String url, String method, String body) {
-        HttpRequest.Builder builder = HttpRequest.newBuilder()
+        if ("POST".equals(method) && body != null) {
+            return buildRequest(url, HttpRequest.BodyPublishers.ofString(body), "application/json");
+        }
+        return baseRequest(url).GET().build();
+    }
+
+    private HttpRequest buildRequest(String url, HttpRequest.BodyPublisher body, String contentType) {
+        return baseRequest(url)
+                .POST(body)
+                .header("Content-Type", contentType)
+                .build();
+    }
+
+    private HttpRequest.Builder baseRequest(String url) {
+        return HttpRequest.newBuilder()
                 .uri(URI.create(url))
                 .timeout(Duration.ofMillis(plugin.getConfigManager().getReadTimeout()))
                 .header("Authorization", "Bearer " + plugin.getConfigManager().getApiToken())
-                .header("X-Server-Name", plugin.getConfigManager().getServerName());
+                .header("X-Server-Name", plugin.getConfigManager().getServerName())
+                .header("Accept", binaryWire
+                        ? WireCodec.MEDIA_TYPE + ", application/json;q=0.5"
+                        : "application/json");
+    }
 
-        if ("POST".equals(method) && body != null) {
-            builder.POST(HttpRequest.BodyPublishers.ofString(body))
-                    .header("Content-Type", "application/json");
-        } else {
-            builder.GET();
+    private List<RemoteCommand> parseCommands(JsonObject response) {
+        if (response == null || !response.has("commands")) {
+            return Collections.emptyList();
         }
-
-        return builder.build();
+        JsonArray arr = response.getAsJsonArray("commands");
+        List<RemoteCommand> commands = new ArrayList<>(arr.size());
+        for (JsonElement el : arr) {
+            commands.add(parseCommand(el.getAsJsonObject()));
+        }
+        return commands;
     }
 
     private RemoteCommand parseCommand(JsonObject obj) {
@@ -228,6 +566,25 @@ public class ApiClient {
         cmd.setCreatedAt(getStr(obj, "created_at"));
         cmd.setExpiresAt(getStr(obj, "expires_at"));
 
+        JsonElement script = obj.get("script");
+        if (script != null && !script.isJsonNull()) {
+            JsonArray lines = script.isJsonArray()
+                    ? script.getAsJsonArray()
+                    : gson.fromJson(script.getAsString(), JsonArray.class);
+            List<String> parsed = new ArrayList<>(lines.size());
+            for (JsonElement line : lines) {
+                parsed.add(line.getAsString());
+            }
+            cmd.setScript(parsed);
+        }
+
+        JsonElement conditions = obj.get("conditions");
+        if (conditions != null && !conditions.isJsonNull()) {
+            cmd.setConditions(conditions.isJsonObject()
+                    ? gson.fromJson(conditions, ExecutionConditions.class)
+                    : gson.fromJson(conditions.getAsString(), ExecutionConditions.class));
+        }
+
         String execType = getStr(obj, "execution_type");
         cmd.setExecutionType(RemoteCommand.ExecutionType.fromString(execType));
 
@@ -240,4 +597,63 @@ public class ApiClient {
         }
         return null;
     }
+
+    /**
+     * Sends a poll to the best endpoint and, if it has not answered by that
+     * endpoint's p95 latency (or fails outright), repeats it against the
+     * runner-up. The first successful answer wins; leased commands returned by
+     * the losing request are released so they go straight back to PENDING.
+     */
+    private final class HedgedFetch {
+        private final ApiEndpoint primary;
+        private final ApiEndpoint secondary;
+        private final String path;
+        private final String body;
+        private final boolean leased;
+        private final CompletableFuture<List<RemoteCommand>> result = new CompletableFuture<>();
+        private final AtomicBoolean hedgeSent = new AtomicBoolean(false);
+        private final AtomicInteger outstanding = new AtomicInteger(1);
+
+        HedgedFetch(ApiEndpoint primary, ApiEndpoint secondary, String path, String body, boolean leased) {
+            this.primary = primary;
+            this.secondary = secondary;
+            this.path = path;
+            this.body = body;
+            this.leased = leased;
+        }
+
+        CompletableFuture<List<RemoteCommand>> start() {
+            sendForCommandsAsync(primary, path, body).whenComplete(this::onResponse);
+            if (hedgePolls) {
+                long delay = Math.max(MIN_HEDGE_DELAY_MS, primary.p95LatencyMs(DEFAULT_HEDGE_DELAY_MS));
+                executor.schedule(this::hedge, delay, TimeUnit.MILLISECONDS);
+            }
+            return result;
+        }
+
+        private void hedge() {
+            if (result.isDone() || !hedgeSent.compareAndSet(false, true)) return;
+            outstanding.incrementAndGet();
+            if (plugin.isDebug()) {
+                plugin.logDebug("Hedging " + path + " to " + secondary.getUrl());
+            }
+            sendForCommandsAsync(secondary, path, body).whenComplete(this::onResponse);
+        }
+
+        private void onResponse(List<RemoteCommand> commands, Throwable ex) {
+            if (ex == null) {
+                if (!result.complete(commands) && leased) {
+                    for (RemoteCommand cmd : commands) {
+                        releaseCommand(cmd.getId());
+                    }
+                }
+                return;
+            }
+
+            hedge();
+            if (outstanding.decrementAndGet() == 0) {
+                result.completeExceptionally(ex);
+            }
+        }
+    }
 }
@@ -0,0 +1,80 @@
+package pl.pluginrcon.api;
+
+import java.util.Arrays;
+
+/**
+ * Health and latency statistics for one API base URL. Latency and error rate
+ * are exponentially weighted; an endpoint that fails repeatedly is taken out
+ * of rotation for a cooldown period and then probed again.
+ */
+final class ApiEndpoint {
+
+    private static final double ALPHA = 0.2;
+    /** Assumed latency for an endpoint that has not answered yet. */
+    private static final double PRIOR_LATENCY_MS = 250;
+    /** Added to the score at a 100% error rate. */
+    private static final double ERROR_PENALTY_MS = 2_000;
+    private static final int FAILURE_THRESHOLD = 3;
+    private static final long COOLDOWN_MS = 10_000;
+    private static final int SAMPLE_WINDOW = 64;
+
+    private final String url;
+    private volatile boolean binaryReports = true;
+    private final long[] samples = new long[SAMPLE_WINDOW];
+    private int sampleCount;
+    private int sampleIndex;
+    private double latencyMs = -1;
+    private double errorRate;
+    private int consecutiveFailures;
+    private long failedAt;
+
+    ApiEndpoint(String url) {
+        this.url = url;
+    }
+
+    String getUrl() { return url; }
+
+    /** False once this node rejected a binary report frame; reports then go as JSON. */
+    boolean acceptsBinaryReports() { return binaryReports; }
+    void disableBinaryReports() { binaryReports = false; }
+
+    synchronized void recordSuccess(long elapsedMs) {
+        latencyMs = latencyMs < 0 ? elapsedMs : latencyMs + ALPHA * (elapsedMs - latencyMs);
+        errorRate = errorRate * (1 - ALPHA);
+        consecutiveFailures = 0;
+        samples[sampleIndex] = elapsedMs;
+        sampleIndex = (sampleIndex + 1) % SAMPLE_WINDOW;
+        if (sampleCount < SAMPLE_WINDOW) sampleCount++;
+    }
+
+    synchronized void recordFailure() {
+        errorRate = errorRate + ALPHA * (1 - errorRate);
+        consecutiveFailures++;
+        failedAt = System.currentTimeMillis();
+    }
+
+    synchronized boolean isAvailable(long now) {
+        return consecutiveFailures < FAILURE_THRESHOLD || now - failedAt >= COOLDOWN_MS;
+    }
+
+    /**
+     * Lower is better. Endpoints without samples start from a neutral prior
+     * instead of zero, so an unreachable node never outranks healthy ones;
+     * errors add a penalty on top of the latency.
+     */
+    synchronized double score() {
+        return (latencyMs < 0 ? PRIOR_LATENCY_MS : latencyMs) + ERROR_PENALTY_MS * errorRate;
+    }
+
+    synchronized long p95LatencyMs(long fallback) {
+        if (sampleCount == 0) return fallback;
+        long[] sorted = Arrays.copyOf(samples, sampleCount);
+        Arrays.sort(sorted);
+        return sorted[Math.min(sampleCount - 1, (int) Math.ceil(sampleCount * 0.95) - 1)];
+    }
+
+    synchronized String describe() {
+        return url + " (" + (latencyMs < 0 ? "-" : Math.round(latencyMs) + "ms")
+                + ", errors " + Math.round(errorRate * 100) + "%)";
+    }
+}
@@ -0,0 +1,29 @@
+package pl.pluginrcon.api;
+
+/**
+ * A single command outcome waiting to be sent in the next report batch.
+ */
+final class Report {
+
+    enum Status {
+        EXECUTED,
+        FAILED,
+        SKIPPED,
+        RELEASED,
+        DEFERRED
+    }
+
+    private final String commandId;
+    private final Status status;
+    private final String response;
+
+    Report(String commandId, Status status, String response) {
+        this.commandId = commandId;
+        this.status = status;
+        this.response = response;
+    }
+
+    String getCommandId() { return commandId; }
+    Status getStatus() { return status; }
+    String getResponse() { return response; }
+}
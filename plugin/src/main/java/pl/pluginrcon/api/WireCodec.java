@@ -0,0 +1,150 @@
+package pl.pluginrcon.api;
+
+import pl.pluginrcon.model.ExecutionConditions;
+import pl.pluginrcon.model.RemoteCommand;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary framing shared with the API ({@code api/src/wire.js}).
+ * A frame is a version byte, a varint record count and the records. Strings are
+ * written as varint(byteLength + 1) followed by UTF-8 bytes, zero meaning null.
+ * Version 2 appends the script lines (varint count, then strings) to each command;
+ * version 3 then appends the execution conditions.
+ */
+final class WireCodec {
+
+    static final String MEDIA_TYPE = "application/vnd.pluginrcon.frame";
+
+    private static final int VERSION = 3;
+    private static final RemoteCommand.ExecutionType[] EXECUTION_TYPES = RemoteCommand.ExecutionType.values();
+
+    private WireCodec() {}
+
+    static List<RemoteCommand> decodeCommands(byte[] data) {
+        Reader in = new Reader(data);
+        int version = in.readByte();
+        if (version < 1 || version > VERSION) {
+            throw new IllegalStateException("Unsupported frame version: " + version);
+        }
+
+        int count = in.readVarint();
+        List<RemoteCommand> commands = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            RemoteCommand cmd = new RemoteCommand();
+            cmd.setId(in.readString());
+            cmd.setGameMode(in.readString());
+            cmd.setCommand(in.readString());
+            cmd.setPlayer(in.readString());
+            int type = in.readByte();
+            cmd.setExecutionType(type < EXECUTION_TYPES.length
+                    ? EXECUTION_TYPES[type] : RemoteCommand.ExecutionType.INSTANT);
+            cmd.setGroupId(in.readString());
+            if (version >= 2) {
+                int lines = in.readVarint();
+                if (lines > 0) {
+                    List<String> script = new ArrayList<>(lines);
+                    for (int j = 0; j < lines; j++) {
+                        script.add(in.readString());
+                    }
+                    cmd.setScript(script);
+                }
+            }
+            if (version >= 3) {
+                cmd.setConditions(readConditions(in));
+            }
+            commands.add(cmd);
+        }
+        return commands;
+    }
+
+    private static ExecutionConditions readConditions(Reader in) {
+        String permission = in.readString();
+        String world = in.readString();
+        int minOnline = in.readVarint();
+        int maxOnline = in.readVarint();
+        if (permission == null && world == null && minOnline == 0 && maxOnline == 0) {
+            return null;
+        }
+
+        ExecutionConditions conditions = new ExecutionConditions();
+        conditions.setPermission(permission);
+        conditions.setWorld(world);
+        conditions.setMinOnline(minOnline > 0 ? minOnline - 1 : null);
+        conditions.setMaxOnline(maxOnline > 0 ? maxOnline - 1 : null);
+        return conditions;
+    }
+
+    static byte[] encodeReports(List<Report> reports) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(16 + reports.size() * 64);
+        out.write(VERSION);
+        writeVarint(out, reports.size());
+        for (Report report : reports) {
+            writeString(out, report.getCommandId());
+            out.write(report.getStatus().ordinal());
+            writeString(out, report.getResponse());
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String value) {
+        if (value == null) {
+            writeVarint(out, 0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length + 1);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static final class Reader {
+        private final byte[] data;
+        private int pos;
+
+        Reader(byte[] data) {
+            this.data = data;
+        }
+
+        int readByte() {
+            if (pos >= data.length) {
+                throw new IllegalStateException("Truncated frame");
+            }
+            return data[pos++] & 0xFF;
+        }
+
+        int readVarint() {
+            int result = 0;
+            for (int shift = 0; shift <= 28; shift += 7) {
+                int b = readByte();
+                result |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+            }
+            throw new IllegalStateException("Malformed varint");
+        }
+
+        String readString() {
+            int len = readVarint();
+            if (len == 0) return null;
+            len -= 1;
+            if (pos + len > data.length) {
+                throw new IllegalStateException("Truncated frame");
+            }
+            String value = new String(data, pos, len, StandardCharsets.UTF_8);
+            pos += len;
+            return value;
+        }
+    }
+}
@@ -8,7 +8,15 @@ import org.bukkit.command.CommandSender;
 import org.bukkit.command.TabCompleter;
 import org.jetbrains.annotations.NotNull;
 import pl.pluginrcon.PluginRcon;
-
+import pl.pluginrcon.source.CommandSource;
+import pl.pluginrcon.trace.TraceBuffer;
+
+import java.io.File;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.Arrays;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -16,6 +24,7 @@ import java.util.stream.Collectors;
 public class AdminCommand implements CommandExecutor, TabCompleter {
 
     private static final Component PREFIX = Component.text("[PluginRCON] ", NamedTextColor.GOLD);
+    private static final DateTimeFormatter TRACE_FILE_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
 
     private final PluginRcon plugin;
 
@@ -40,6 +49,9 @@ public class AdminCommand implements CommandExecutor, TabCompleter {
             case "pull":
                 handlePull(sender);
                 break;
+            case "trace":
+                handleTrace(sender, args);
+                break;
             default:
                 sendHelp(sender);
         }
@@ -58,19 +70,25 @@ public class AdminCommand implements CommandExecutor, TabCompleter {
         sender.sendMessage(PREFIX.append(Component.text("=== PluginRCON Status ===", NamedTextColor.YELLOW)));
         sender.sendMessage(Component.text("  Server: ", NamedTextColor.GRAY)
                 .append(Component.text(config.getServerName(), NamedTextColor.WHITE)));
-        sender.sendMessage(Component.text("  API: ", NamedTextColor.GRAY)
-                .append(Component.text(config.getApiUrl(), NamedTextColor.WHITE)));
+        for (String endpoint : plugin.getApiClient().describeEndpoints()) {
+            sender.sendMessage(Component.text("  API: ", NamedTextColor.GRAY)
+                    .append(Component.text(endpoint, NamedTextColor.WHITE)));
+        }
         sender.sendMessage(Component.text("  Poll interval: ", NamedTextColor.GRAY)
                 .append(Component.text(config.getPullInterval() + "s", NamedTextColor.GREEN)));
+        String sources = plugin.getSources().stream().map(CommandSource::getName).collect(Collectors.joining(", "));
+        sender.sendMessage(Component.text("  Sources: ", NamedTextColor.GRAY)
+                .append(Component.text(sources, NamedTextColor.WHITE)));
     }
 
     private void handlePull(CommandSender sender) {
         sender.sendMessage(PREFIX.append(Component.text("Forcing pull...", NamedTextColor.YELLOW)));
-        plugin.getApiClient().fetchPendingCommands()
+        plugin.getApiClient().claimPendingCommands()
                 .thenAccept(commands -> {
                     sender.sendMessage(PREFIX.append(Component.text("Pulled " + commands.size() + " commands", NamedTextColor.GREEN)));
+                    CommandSource http = plugin.getHttpSource();
                     for (var cmd : commands) {
-                        plugin.getCommandProcessor().processCommand(cmd);
+                        plugin.getCommandProcessor().processCommand(cmd, http);
                     }
                 })
                 .exceptionally(ex -> {
@@ -79,21 +97,69 @@ public class AdminCommand implements CommandExecutor, TabCompleter {
                 });
     }
 
+    private void handleTrace(CommandSender sender, String[] args) {
+        TraceBuffer trace = plugin.getTrace();
+        String action = args.length > 1 ? args[1].toLowerCase() : "";
+
+        switch (action) {
+            case "on":
+                trace.setEnabled(true);
+                sender.sendMessage(PREFIX.append(Component.text("Tracing enabled", NamedTextColor.GREEN)));
+                break;
+            case "off":
+                trace.setEnabled(false);
+                sender.sendMessage(PREFIX.append(Component.text("Tracing disabled", NamedTextColor.YELLOW)));
+                break;
+            case "dump":
+                String commandId = args.length > 2 ? args[2] : null;
+                plugin.getServer().getScheduler().runTaskAsynchronously(plugin, () -> dumpTrace(sender, trace, commandId));
+                break;
+            default:
+                sender.sendMessage(PREFIX.append(Component.text("Tracing is " + (trace.isEnabled() ? "on" : "off")
+                        + " (" + trace.getCapacity() + " events)", NamedTextColor.GRAY)));
+                sender.sendMessage(Component.text("  /pluginrcon trace <on|off|dump [id]>", NamedTextColor.GOLD));
+        }
+    }
+
+    private void dumpTrace(CommandSender sender, TraceBuffer trace, String commandId) {
+        File dir = new File(plugin.getDataFolder(), "traces");
+        String name = "trace-" + LocalDateTime.now().format(TRACE_FILE_FORMAT)
+                + (commandId != null ? "-" + commandId.replaceAll("[^A-Za-z0-9-]", "_") : "") + ".log";
+        File file = new File(dir, name);
+
+        try {
+            Files.createDirectories(dir.toPath());
+            int lines;
+            try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+                lines = trace.dump(writer, commandId);
+            }
+            sender.sendMessage(PREFIX.append(Component.text("Wrote " + lines + " trace events to traces/" + name,
+                    NamedTextColor.GREEN)));
+        } catch (Exception e) {
+            sender.sendMessage(PREFIX.append(Component.text("Trace dump failed: " + e.getMessage(), NamedTextColor.RED)));
+        }
+    }
 
     private void sendHelp(CommandSender sender) {
         sender.sendMessage(PREFIX.append(Component.text("=== Commands ===", NamedTextColor.YELLOW)));
         sender.sendMessage(Component.text("  /pluginrcon reload", NamedTextColor.GOLD).append(Component.text(" - Reload configuration", NamedTextColor.GRAY)));
         sender.sendMessage(Component.text("  /pluginrcon status", NamedTextColor.GOLD).append(Component.text(" - Show connection status", NamedTextColor.GRAY)));
         sender.sendMessage(Component.text("  /pluginrcon pull", NamedTextColor.GOLD).append(Component.text(" - Force pull commands", NamedTextColor.GRAY)));
+        sender.sendMessage(Component.text("  /pluginrcon trace <on|off|dump [id]>", NamedTextColor.GOLD).append(Component.text(" - Pipeline trace buffer", NamedTextColor.GRAY)));
     }
 
     @Override
     public List<String> onTabComplete(@NotNull CommandSender sender, @NotNull Command command, @NotNull String label, @NotNull String[] args) {
         if (args.length == 1) {
-            return Arrays.asList("reload", "status", "pull").stream()
+            return Arrays.asList("reload", "status", "pull", "trace").stream()
                     .filter(s -> s.startsWith(args[0].toLowerCase()))
                     .collect(Collectors.toList());
         }
+        if (args.length == 2 && "trace".equalsIgnoreCase(args[0])) {
+            return Arrays.asList("on", "off", "dump").stream()
+                    .filter(s -> s.startsWith(args[1].toLowerCase()))
+                    .collect(Collectors.toList());
+        }
         return List.of();
     }
 }
@@ -2,17 +2,29 @@ package pl.pluginrcon.command;
 
 import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
+import org.bukkit.scheduler.BukkitTask;
 import pl.pluginrcon.PluginRcon;
+import pl.pluginrcon.jfr.DedupeEvent;
+import pl.pluginrcon.jfr.DispatchEvent;
+import pl.pluginrcon.model.ExecutionConditions;
 import pl.pluginrcon.model.RemoteCommand;
+import pl.pluginrcon.source.CommandSource;
+import pl.pluginrcon.task.CatchUpTask;
+import pl.pluginrcon.trace.TraceEvent;
 
 import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class CommandProcessor {
 
     private static final int MAX_PROCESSED_CACHE_SIZE = 10_000;
+    private static final long PARK_RETRY_TICKS = 100L;
+    /** About 30 minutes at {@link #PARK_RETRY_TICKS}. */
+    private static final int MAX_PARK_RETRIES = 360;
 
     private final PluginRcon plugin;
 
@@ -27,24 +39,89 @@ public class CommandProcessor {
             )
     );
 
+    private final Map<String, ParkedRetry> parked = new ConcurrentHashMap<>();
+
+    private volatile CatchUpTask catchUpTask;
+
     public CommandProcessor(PluginRcon plugin) {
         this.plugin = plugin;
     }
 
-    public void processCommand(RemoteCommand cmd) {
+    public void startCatchUp(long rampMillis, int initialPerTick, int maxPerTick) {
+        if (rampMillis <= 0) return;
+        CatchUpTask task = new CatchUpTask(plugin, rampMillis, initialPerTick, maxPerTick);
+        task.runTaskTimer(plugin, 1L, 1L);
+        catchUpTask = task;
+    }
+
+    /**
+     * Ends catch-up mode. Commands still queued are handed back to their
+     * source: leased ones are released, and local sources, which cannot
+     * redeliver, get a failure report so the sender knows they never ran.
+     */
+    public void stopCatchUp() {
+        CatchUpTask task = catchUpTask;
+        if (task == null) return;
+        catchUpTask = null;
+        for (RemoteCommand cmd : task.stop()) {
+            processedIds.remove(cmd.getId());
+            if (!cmd.getSource().release(cmd)) {
+                cmd.getSource().reportFailed(cmd, "Not dispatched before shutdown");
+            }
+        }
+    }
+
+    /**
+     * Entry point for every {@link CommandSource}. Outcomes are reported back
+     * to the source the command came from.
+     */
+    public void processCommand(RemoteCommand cmd, CommandSource source) {
         if (cmd == null || cmd.getId() == null) return;
+        cmd.setSource(source);
 
         if (plugin.getExecutionLog() != null && plugin.getExecutionLog().isAlreadyExecuted(cmd.getId())) {
-            plugin.logDebug("Skipping command from execution log (backup protection): " + cmd.getId());
-            plugin.getApiClient().reportComplete(cmd.getId(), "Already executed (backup protection)");
+            plugin.getTrace().record(TraceEvent.DEDUPE_HIT, cmd.getId(), 0);
+            emitDedupe(cmd, "execution-log");
+            if (plugin.isDebug()) {
+                plugin.logDebug("Skipping command from execution log (backup protection): " + cmd.getId());
+            }
+            if (plugin.getExecutionLog().isPartial(cmd.getId())) {
+                source.reportFailed(cmd, "Script already partially executed, not re-run (backup protection)");
+            } else {
+                source.reportComplete(cmd, "Already executed (backup protection)");
+            }
             return;
         }
 
         if (!processedIds.add(cmd.getId())) {
-            plugin.logDebug("Skipping already processed command: " + cmd.getId());
+            plugin.getTrace().record(TraceEvent.DEDUPE_HIT, cmd.getId(), 1);
+            emitDedupe(cmd, "in-flight");
+            if (plugin.isDebug()) {
+                plugin.logDebug("Skipping already processed command: " + cmd.getId());
+            }
+            return;
+        }
+        emitDedupe(cmd, "accepted");
+
+        String gameMode = plugin.getConfigManager().getGameMode();
+        if (cmd.getGameMode() != null && gameMode != null && !cmd.getGameMode().equalsIgnoreCase(gameMode)) {
+            // Hand it back rather than closing it; the server it was meant for may still claim it
+            processedIds.remove(cmd.getId());
+            if (!cmd.getSource().release(cmd)) {
+                reportSkipped(cmd, "Game mode " + cmd.getGameMode() + " does not match " + gameMode);
+            }
             return;
         }
 
+        ExecutionConditions conditions = cmd.getConditions();
+        if (conditions != null) {
+            String unmet = conditions.checkOnlineCount(Bukkit.getOnlinePlayers().size());
+            if (unmet != null) {
+                park(cmd, unmet);
+                return;
+            }
+        }
+
         switch (cmd.getExecutionType()) {
             case INSTANT:
                 executeImmediate(cmd);
@@ -59,17 +136,30 @@ public class CommandProcessor {
     }
 
     private void executeImmediate(RemoteCommand cmd) {
+        if (cmd.getConditions() != null && cmd.getConditions().requiresPlayer()) {
+            runOnMainThread(cmd, () -> {
+                Player player = cmd.getPlayer() != null ? Bukkit.getPlayerExact(cmd.getPlayer()) : null;
+                if (!checkPlayerConditions(cmd, player)) return;
+                if (cmd.isScript()) {
+                    runScript(cmd, cmd.getPlayer());
+                    return;
+                }
+                dispatch(cmd, cmd.getResolvedCommand(cmd.getPlayer()), "Command dispatched");
+            });
+            return;
+        }
+
+        if (cmd.isScript()) {
+            runOnMainThread(cmd, () -> runScript(cmd, cmd.getPlayer()));
+            return;
+        }
+
         String resolved = cmd.getResolvedCommand(cmd.getPlayer());
-        plugin.logDebug("Executing INSTANT: " + resolved);
+        if (plugin.isDebug()) {
+            plugin.logDebug("Executing INSTANT: " + resolved);
+        }
 
-        Bukkit.getScheduler().runTask(plugin, () -> {
-            try {
-                boolean success = Bukkit.dispatchCommand(Bukkit.getConsoleSender(), resolved);
-                reportResult(cmd, success, success ? "Command dispatched" : "Command dispatch returned false");
-            } catch (Exception e) {
-                reportResult(cmd, false, "Error: " + e.getMessage());
-            }
-        });
+        runOnMainThread(cmd, () -> dispatch(cmd, resolved, "Command dispatched"));
     }
 
     private void executeRequireOnline(RemoteCommand cmd) {
@@ -78,20 +168,24 @@ public class CommandProcessor {
             return;
         }
 
-        Bukkit.getScheduler().runTask(plugin, () -> {
+        runOnMainThread(cmd, () -> {
             Player player = Bukkit.getPlayerExact(cmd.getPlayer());
             if (player != null && player.isOnline()) {
+                if (!checkPlayerConditions(cmd, player)) return;
+                if (cmd.isScript()) {
+                    runScript(cmd, player.getName());
+                    return;
+                }
                 String resolved = cmd.getResolvedCommand(player.getName());
-                plugin.logDebug("Executing REQUIRE_ONLINE (player online): " + resolved);
-                try {
-                    boolean success = Bukkit.dispatchCommand(Bukkit.getConsoleSender(), resolved);
-                    reportResult(cmd, success, success ? "Command dispatched (player online)" : "Command dispatch returned false");
-                } catch (Exception e) {
-                    reportResult(cmd, false, "Error: " + e.getMessage());
+                if (plugin.isDebug()) {
+                    plugin.logDebug("Executing REQUIRE_ONLINE (player online): " + resolved);
                 }
+                dispatch(cmd, resolved, "Command dispatched (player online)");
             } else {
-                plugin.logDebug("REQUIRE_ONLINE: player " + cmd.getPlayer() + " not online, waiting: " + cmd.getId());
-                processedIds.remove(cmd.getId());
+                if (plugin.isDebug()) {
+                    plugin.logDebug("REQUIRE_ONLINE: player " + cmd.getPlayer() + " not online, waiting: " + cmd.getId());
+                }
+                park(cmd);
             }
         });
     }
@@ -102,47 +196,221 @@ public class CommandProcessor {
             return;
         }
 
-        Bukkit.getScheduler().runTask(plugin, () -> {
+        runOnMainThread(cmd, () -> {
             Player player = Bukkit.getPlayerExact(cmd.getPlayer());
             if (player != null && player.isOnline()) {
+                if (!checkPlayerConditions(cmd, player)) return;
+                if (cmd.isScript()) {
+                    runScript(cmd, player.getName());
+                    return;
+                }
                 String resolved = cmd.getResolvedCommand(player.getName());
-                plugin.logDebug("Executing BROADCAST_ONLINE (player found): " + resolved);
-                try {
-                    boolean success = Bukkit.dispatchCommand(Bukkit.getConsoleSender(), resolved);
-                    reportResult(cmd, success,
-                            success ? "Broadcast executed (player on this server)" : "Command dispatch returned false");
-                } catch (Exception e) {
-                    reportResult(cmd, false, "Error: " + e.getMessage());
+                if (plugin.isDebug()) {
+                    plugin.logDebug("Executing BROADCAST_ONLINE (player found): " + resolved);
                 }
+                dispatch(cmd, resolved, "Broadcast executed (player on this server)");
             } else {
-                plugin.logDebug("BROADCAST_ONLINE: player " + cmd.getPlayer()
-                        + " not on this server, waiting: " + cmd.getId());
-                processedIds.remove(cmd.getId());
+                if (plugin.isDebug()) {
+                    plugin.logDebug("BROADCAST_ONLINE: player " + cmd.getPlayer()
+                            + " not on this server, waiting: " + cmd.getId());
+                }
+                park(cmd);
             }
         });
     }
 
+    private void dispatch(RemoteCommand cmd, String resolved, String successMessage) {
+        DispatchEvent event = new DispatchEvent();
+        event.begin();
+        boolean success = false;
+        String message;
+        try {
+            success = Bukkit.dispatchCommand(Bukkit.getConsoleSender(), resolved);
+            message = success ? successMessage : "Command dispatch returned false";
+        } catch (Exception e) {
+            message = "Error: " + e.getMessage();
+        }
+        event.end();
+        commitDispatch(event, cmd, resolved, 1, success);
+        reportResult(cmd, success, message);
+    }
+
+    private void emitDedupe(RemoteCommand cmd, String decision) {
+        DedupeEvent event = new DedupeEvent();
+        if (event.shouldCommit()) {
+            event.commandId = cmd.getId();
+            event.decision = decision;
+            event.commit();
+        }
+    }
+
+    private void commitDispatch(DispatchEvent event, RemoteCommand cmd, String firstLine, int lines, boolean success) {
+        if (!event.shouldCommit()) return;
+        int space = firstLine.indexOf(' ');
+        event.commandId = cmd.getId();
+        event.label = space < 0 ? firstLine : firstLine.substring(0, space);
+        event.executionType = cmd.getExecutionType().name();
+        event.lines = lines;
+        event.success = success;
+        event.commit();
+    }
+
+    /**
+     * Checks permission and world predicates on the main thread. Parks the
+     * command and returns false if the player is missing or doesn't qualify yet.
+     */
+    private boolean checkPlayerConditions(RemoteCommand cmd, Player player) {
+        ExecutionConditions conditions = cmd.getConditions();
+        if (conditions == null || !conditions.requiresPlayer()) return true;
+
+        if (player == null || !player.isOnline()) {
+            park(cmd, "Player " + cmd.getPlayer() + " required by conditions is not online");
+            return false;
+        }
+        if (conditions.getPermission() != null && !player.hasPermission(conditions.getPermission())) {
+            park(cmd, "Player " + player.getName() + " lacks permission " + conditions.getPermission());
+            return false;
+        }
+        if (conditions.getWorld() != null && !conditions.getWorld().equalsIgnoreCase(player.getWorld().getName())) {
+            park(cmd, "Player " + player.getName() + " is not in world " + conditions.getWorld());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Runs every script line in the current tick, stopping at the first line
+     * that fails, and reports the whole script once with per-line results.
+     */
+    private void runScript(RemoteCommand cmd, String playerName) {
+        List<String> lines = cmd.getResolvedScript(playerName);
+        StringBuilder results = new StringBuilder();
+        boolean success = true;
+        boolean anyRan = false;
+        DispatchEvent event = new DispatchEvent();
+        event.begin();
+
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i);
+            results.append('#').append(i + 1);
+            if (!success) {
+                results.append(" NOT RUN: ").append(line).append('\n');
+                continue;
+            }
+            anyRan = true;
+            try {
+                success = Bukkit.dispatchCommand(Bukkit.getConsoleSender(), line);
+                results.append(success ? " OK: " : " FAILED: ").append(line).append('\n');
+            } catch (Exception e) {
+                success = false;
+                results.append(" ERROR: ").append(line).append(" (").append(e.getMessage()).append(")\n");
+            }
+        }
+
+        event.end();
+        commitDispatch(event, cmd, lines.isEmpty() ? "" : lines.get(0), lines.size(), success);
+
+        if (plugin.isDebug()) {
+            plugin.logDebug("Executed script " + cmd.getId() + " (" + lines.size() + " lines)");
+        }
+        // A failed script may have run some lines; keep it from being re-run
+        // from the top if the FAILED report is lost and the lease expires.
+        if (!success && anyRan && plugin.getExecutionLog() != null) {
+            plugin.getExecutionLog().markPartial(cmd.getId());
+        }
+        reportResult(cmd, success, results.toString().trim());
+    }
+
+    private void runOnMainThread(RemoteCommand cmd, Runnable task) {
+        CatchUpTask catchUp = catchUpTask;
+        if (catchUp != null && catchUp.submit(cmd, task)) {
+            return;
+        }
+        Bukkit.getScheduler().runTask(plugin, task);
+    }
+
+    private void park(RemoteCommand cmd, String reason) {
+        if (plugin.isDebug()) {
+            plugin.logDebug("Parking " + cmd.getId() + ": " + reason);
+        }
+        park(cmd);
+    }
+
+    /**
+     * Sources that can't redeliver on their own (local ones have no lease to
+     * defer) get the command retried here until its conditions are met, for
+     * at most {@link #MAX_PARK_RETRIES} attempts.
+     */
+    private void park(RemoteCommand cmd) {
+        plugin.getTrace().record(TraceEvent.PARK, cmd.getId(), 0);
+        processedIds.remove(cmd.getId());
+        CommandSource source = cmd.getSource();
+        if (source.defer(cmd)) return;
+
+        ParkedRetry previous = parked.get(cmd.getId());
+        int attempts = previous == null ? 1 : previous.attempts + 1;
+        if (attempts > MAX_PARK_RETRIES) {
+            parked.remove(cmd.getId());
+            reportResult(cmd, false, "Conditions not met after " + MAX_PARK_RETRIES + " retries");
+            return;
+        }
+        BukkitTask task = Bukkit.getScheduler().runTaskLaterAsynchronously(plugin,
+                () -> processCommand(cmd, source), PARK_RETRY_TICKS);
+        parked.put(cmd.getId(), new ParkedRetry(cmd, attempts, task));
+    }
+
+    /**
+     * Cancels pending retries of parked commands before their sources stop.
+     * The sources are told the commands never ran.
+     */
+    public void cancelParkedRetries() {
+        for (ParkedRetry retry : parked.values()) {
+            retry.task.cancel();
+            processedIds.remove(retry.cmd.getId());
+            retry.cmd.getSource().reportFailed(retry.cmd, "Not dispatched before shutdown");
+        }
+        parked.clear();
+    }
+
     private void reportResult(RemoteCommand cmd, boolean success, String message) {
+        plugin.getTrace().record(TraceEvent.DISPATCH, cmd.getId(), success ? 1 : 0);
+        parked.remove(cmd.getId());
         if (success && plugin.getExecutionLog() != null) {
             plugin.getExecutionLog().markExecuted(cmd.getId());
         }
 
         if (success) {
-            plugin.getApiClient().reportComplete(cmd.getId(), message);
+            cmd.getSource().reportComplete(cmd, message);
         } else {
-            plugin.getApiClient().reportFailed(cmd.getId(), message);
+            cmd.getSource().reportFailed(cmd, message);
         }
 
-        plugin.logDebug("Command " + cmd.getId() + " " + (success ? "completed" : "failed") + ": " + message);
+        if (plugin.isDebug()) {
+            plugin.logDebug("Command " + cmd.getId() + " " + (success ? "completed" : "failed") + ": " + message);
+        }
     }
 
-    private void reportSkipped(RemoteCommand cmd, String context) {
-        plugin.getApiClient().reportSkipped(cmd.getId(),
-                "Player " + cmd.getPlayer() + " not online on " + plugin.getConfigManager().getServerName());
-        plugin.logDebug("Command " + cmd.getId() + " skipped (" + context + ")");
+    private void reportSkipped(RemoteCommand cmd, String reason) {
+        parked.remove(cmd.getId());
+        cmd.getSource().reportSkipped(cmd, reason);
+        if (plugin.isDebug()) {
+            plugin.logDebug("Command " + cmd.getId() + " skipped (" + reason + ")");
+        }
     }
 
     public void clearProcessedCache() {
         processedIds.clear();
     }
+
+    private static final class ParkedRetry {
+        final RemoteCommand cmd;
+        final int attempts;
+        final BukkitTask task;
+
+        ParkedRetry(RemoteCommand cmd, int attempts, BukkitTask task) {
+            this.cmd = cmd;
+            this.attempts = attempts;
+            this.task = task;
+        }
+    }
 }
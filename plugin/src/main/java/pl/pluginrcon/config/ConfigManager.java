@@ -3,17 +3,34 @@ package pl.pluginrcon.config;
 import org.bukkit.configuration.file.FileConfiguration;
 import pl.pluginrcon.PluginRcon;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class ConfigManager {
 
     private final PluginRcon plugin;
     private String serverName;
-    private String apiUrl;
+    private String gameMode;
+    private List<String> apiUrls;
+    private boolean hedgePolls;
     private String apiToken;
     private int pullInterval;
     private int pullOffset;
+    private int pullBatchSize;
+    private int leaseSeconds;
     private int connectionTimeout;
     private int readTimeout;
     private int httpPoolSize;
+    private boolean binaryWire;
+    private int catchUpSeconds;
+    private int catchUpInitialPerTick;
+    private int catchUpMaxPerTick;
+    private boolean traceEnabled;
+    private boolean inProcessSource;
+    private boolean spoolEnabled;
+    private String spoolDirectory;
+    private int spoolBatchSize;
+    private int traceCapacity;
     private boolean debug;
 
     public ConfigManager(PluginRcon plugin) {
@@ -27,27 +44,61 @@ public class ConfigManager {
         FileConfiguration config = plugin.getConfig();
 
         serverName = config.getString("server-name", "default");
-        apiUrl = config.getString("api.url", "http://localhost:3000");
+        gameMode = config.getString("game-mode", "");
+        if (gameMode.isEmpty()) {
+            gameMode = null;
+        }
+        List<String> configuredUrls = config.getStringList("api.urls");
+        if (configuredUrls.isEmpty()) {
+            configuredUrls = List.of(config.getString("api.url", "http://localhost:3000"));
+        }
+        apiUrls = new ArrayList<>(configuredUrls.size());
+        for (String url : configuredUrls) {
+            apiUrls.add(url.endsWith("/") ? url.substring(0, url.length() - 1) : url);
+        }
+        hedgePolls = config.getBoolean("api.hedge-polls", false);
         apiToken = config.getString("api.token", "");
         pullInterval = config.getInt("pull.interval", 5);
         pullOffset = config.getInt("pull.offset", 0);
+        pullBatchSize = config.getInt("pull.batch-size", 100);
+        leaseSeconds = config.getInt("pull.lease-seconds", 30);
         connectionTimeout = config.getInt("connection.timeout", 10000);
         readTimeout = config.getInt("connection.read-timeout", 10000);
         httpPoolSize = config.getInt("connection.pool-size", 16);
+        binaryWire = "binary".equalsIgnoreCase(config.getString("connection.wire-format", "binary"));
+        catchUpSeconds = config.getInt("startup.catch-up-seconds", 30);
+        catchUpInitialPerTick = config.getInt("startup.catch-up-initial-per-tick", 2);
+        catchUpMaxPerTick = config.getInt("startup.catch-up-max-per-tick", 20);
+        traceEnabled = config.getBoolean("trace.enabled", false);
+        traceCapacity = config.getInt("trace.capacity", 4096);
+        inProcessSource = config.getBoolean("sources.in-process", true);
+        spoolEnabled = config.getBoolean("sources.spool.enabled", false);
+        spoolDirectory = config.getString("sources.spool.directory", "spool");
+        spoolBatchSize = config.getInt("sources.spool.batch-size", 100);
         debug = config.getBoolean("debug", false);
-
-        if (apiUrl.endsWith("/")) {
-            apiUrl = apiUrl.substring(0, apiUrl.length() - 1);
-        }
     }
 
     public String getServerName() { return serverName; }
-    public String getApiUrl() { return apiUrl; }
+    public String getGameMode() { return gameMode; }
+    public List<String> getApiUrls() { return apiUrls; }
+    public boolean isHedgePolls() { return hedgePolls; }
     public String getApiToken() { return apiToken; }
     public int getPullInterval() { return pullInterval; }
     public int getPullOffset() { return pullOffset; }
+    public int getPullBatchSize() { return pullBatchSize; }
+    public int getLeaseSeconds() { return leaseSeconds; }
     public int getConnectionTimeout() { return connectionTimeout; }
     public int getReadTimeout() { return readTimeout; }
     public int getHttpPoolSize() { return httpPoolSize; }
+    public boolean isBinaryWire() { return binaryWire; }
+    public int getCatchUpSeconds() { return catchUpSeconds; }
+    public int getCatchUpInitialPerTick() { return catchUpInitialPerTick; }
+    public int getCatchUpMaxPerTick() { return catchUpMaxPerTick; }
+    public boolean isTraceEnabled() { return traceEnabled; }
+    public int getTraceCapacity() { return traceCapacity; }
+    public boolean isInProcessSource() { return inProcessSource; }
+    public boolean isSpoolEnabled() { return spoolEnabled; }
+    public String getSpoolDirectory() { return spoolDirectory; }
+    public int getSpoolBatchSize() { return spoolBatchSize; }
     public boolean isDebug() { return debug; }
 }
@@ -0,0 +1,30 @@
+package pl.pluginrcon.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("pl.pluginrcon.ApiRequest")
+@Label("API Request")
+@Description("HTTP request from the plugin to the PluginRCON API")
+@Category({"PluginRCON", "API"})
+@StackTrace(false)
+public class ApiRequestEvent extends jdk.jfr.Event {
+
+    @Label("Endpoint")
+    public String endpoint;
+
+    @Label("Method")
+    public String method;
+
+    @Label("Path")
+    public String path;
+
+    @Label("Status Code")
+    public int statusCode;
+
+    @Label("Failed")
+    public boolean failed;
+}
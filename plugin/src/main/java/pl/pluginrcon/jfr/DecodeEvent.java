@@ -0,0 +1,26 @@
+package pl.pluginrcon.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("pl.pluginrcon.Decode")
+@Label("Command List Decode")
+@Description("Decoding of a pending or claimed command list")
+@Category({"PluginRCON", "API"})
+@StackTrace(false)
+public class DecodeEvent extends jdk.jfr.Event {
+
+    @Label("Format")
+    public String format;
+
+    @Label("Size")
+    @DataAmount
+    public long bytes;
+
+    @Label("Commands")
+    public int commandCount;
+}
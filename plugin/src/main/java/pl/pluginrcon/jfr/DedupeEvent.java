@@ -0,0 +1,21 @@
+package pl.pluginrcon.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("pl.pluginrcon.Dedupe")
+@Label("Dedupe Decision")
+@Description("Whether a received command was accepted or dropped as a duplicate")
+@Category({"PluginRCON", "Pipeline"})
+@StackTrace(false)
+public class DedupeEvent extends jdk.jfr.Event {
+
+    @Label("Command ID")
+    public String commandId;
+
+    @Label("Decision")
+    public String decision;
+}
@@ -0,0 +1,31 @@
+package pl.pluginrcon.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("pl.pluginrcon.Dispatch")
+@Label("Command Dispatch")
+@Description("Main-thread execution of a remote command or script")
+@Category({"PluginRCON", "Pipeline"})
+@StackTrace(false)
+public class DispatchEvent extends jdk.jfr.Event {
+
+    @Label("Command ID")
+    public String commandId;
+
+    @Label("Command Label")
+    @Description("First word of the dispatched command, e.g. \"give\"")
+    public String label;
+
+    @Label("Execution Type")
+    public String executionType;
+
+    @Label("Lines")
+    public int lines;
+
+    @Label("Success")
+    public boolean success;
+}
@@ -0,0 +1,21 @@
+package pl.pluginrcon.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("pl.pluginrcon.ExecutionLogFlush")
+@Label("Execution Log Flush")
+@Description("Write of the executed-command log to disk")
+@Category({"PluginRCON", "Pipeline"})
+@StackTrace(false)
+public class ExecutionLogFlushEvent extends jdk.jfr.Event {
+
+    @Label("Entries")
+    public int entries;
+
+    @Label("Success")
+    public boolean success;
+}
@@ -0,0 +1,18 @@
+package pl.pluginrcon.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("pl.pluginrcon.Poll")
+@Label("Poll")
+@Description("One pull cycle: claim request, decode and hand-off to the command processor")
+@Category({"PluginRCON", "Pipeline"})
+@StackTrace(false)
+public class PollEvent extends jdk.jfr.Event {
+
+    @Label("Commands")
+    public int commandCount;
+}
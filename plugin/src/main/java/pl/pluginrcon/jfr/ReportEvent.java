@@ -0,0 +1,28 @@
+package pl.pluginrcon.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("pl.pluginrcon.Report")
+@Label("Report Send")
+@Description("Send attempt of a batch of command outcomes to the API")
+@Category({"PluginRCON", "API"})
+@StackTrace(false)
+public class ReportEvent extends jdk.jfr.Event {
+
+    @Label("Batch Size")
+    public int batchSize;
+
+    @Label("Attempt")
+    public int attempt;
+
+    @Label("Status Code")
+    public int statusCode;
+
+    @Label("Outcome")
+    @Description("ok, retry or failed")
+    public String outcome;
+}
@@ -0,0 +1,43 @@
+package pl.pluginrcon.model;
+
+/**
+ * Optional local predicates a command must satisfy before it is dispatched.
+ * Unset fields are not checked.
+ */
+public class ExecutionConditions {
+
+    private String permission;
+    private String world;
+    private Integer minOnline;
+    private Integer maxOnline;
+
+    public boolean requiresPlayer() {
+        return permission != null || world != null;
+    }
+
+    /**
+     * Checks the predicates that don't need a player, so they can run off the main thread.
+     * Returns the reason the command can't run yet, or null if it may proceed.
+     */
+    public String checkOnlineCount(int onlinePlayers) {
+        if (minOnline != null && onlinePlayers < minOnline) {
+            return "Requires at least " + minOnline + " players online (" + onlinePlayers + ")";
+        }
+        if (maxOnline != null && onlinePlayers > maxOnline) {
+            return "Requires at most " + maxOnline + " players online (" + onlinePlayers + ")";
+        }
+        return null;
+    }
+
+    public String getPermission() { return permission; }
+    public void setPermission(String permission) { this.permission = permission; }
+
+    public String getWorld() { return world; }
+    public void setWorld(String world) { this.world = world; }
+
+    public Integer getMinOnline() { return minOnline; }
+    public void setMinOnline(Integer minOnline) { this.minOnline = minOnline; }
+
+    public Integer getMaxOnline() { return maxOnline; }
+    public void setMaxOnline(Integer maxOnline) { this.maxOnline = maxOnline; }
+}
@@ -1,5 +1,10 @@
 package pl.pluginrcon.model;
 
+import pl.pluginrcon.source.CommandSource;
+
+import java.util.ArrayList;
+import java.util.List;
+
 public class RemoteCommand {
 
     public enum ExecutionType {
@@ -21,6 +26,8 @@ public class RemoteCommand {
     private String serverId;
     private String gameMode;
     private String command;
+    private List<String> script;
+    private ExecutionConditions conditions;
     private String player;
     private ExecutionType executionType;
     private String status;
@@ -28,6 +35,7 @@ public class RemoteCommand {
     private String groupId;
     private String createdAt;
     private String expiresAt;
+    private transient CommandSource source;
 
     public RemoteCommand() {}
 
@@ -45,8 +53,25 @@ public class RemoteCommand {
     }
 
     public String getResolvedCommand(String playerName) {
-        if (command == null) return "";
-        String resolved = command;
+        return resolve(command, playerName);
+    }
+
+    public List<String> getResolvedScript(String playerName) {
+        if (script == null) return List.of();
+        List<String> resolved = new ArrayList<>(script.size());
+        for (String line : script) {
+            resolved.add(resolve(line, playerName));
+        }
+        return resolved;
+    }
+
+    public boolean isScript() {
+        return script != null && !script.isEmpty();
+    }
+
+    private static String resolve(String line, String playerName) {
+        if (line == null) return "";
+        String resolved = line;
         if (playerName != null) {
             resolved = resolved.replace("%player%", playerName);
             resolved = resolved.replace("%PLAYER%", playerName);
@@ -71,6 +96,12 @@ public class RemoteCommand {
     public String getCommand() { return command; }
     public void setCommand(String command) { this.command = command; }
 
+    public List<String> getScript() { return script; }
+    public void setScript(List<String> script) { this.script = script; }
+
+    public ExecutionConditions getConditions() { return conditions; }
+    public void setConditions(ExecutionConditions conditions) { this.conditions = conditions; }
+
     public String getPlayer() { return player; }
     public void setPlayer(String player) { this.player = player; }
 
@@ -91,4 +122,7 @@ public class RemoteCommand {
 
     public String getExpiresAt() { return expiresAt; }
     public void setExpiresAt(String expiresAt) { this.expiresAt = expiresAt; }
+
+    public CommandSource getSource() { return source; }
+    public void setSource(CommandSource source) { this.source = source; }
 }
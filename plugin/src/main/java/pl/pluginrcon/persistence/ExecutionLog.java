@@ -4,6 +4,7 @@ import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.reflect.TypeToken;
 import pl.pluginrcon.PluginRcon;
+import pl.pluginrcon.jfr.ExecutionLogFlushEvent;
 
 import java.io.*;
 import java.lang.reflect.Type;
@@ -27,6 +28,7 @@ public class ExecutionLog {
 
     private String storedDate;
     private final Set<String> executedIds = ConcurrentHashMap.newKeySet();
+    private final Set<String> partialIds = ConcurrentHashMap.newKeySet();
     private volatile boolean dirty = false;
 
     public ExecutionLog(PluginRcon plugin) {
@@ -36,7 +38,15 @@ public class ExecutionLog {
     }
 
     public boolean isAlreadyExecuted(String commandId) {
-        return executedIds.contains(commandId);
+        return executedIds.contains(commandId) || partialIds.contains(commandId);
+    }
+
+    /**
+     * True for scripts that failed after some lines had already run; these
+     * must not be re-run either, but they did not complete.
+     */
+    public boolean isPartial(String commandId) {
+        return partialIds.contains(commandId);
     }
 
     public void markExecuted(String commandId) {
@@ -45,6 +55,12 @@ public class ExecutionLog {
         dirty = true;
     }
 
+    public void markPartial(String commandId) {
+        partialIds.add(commandId);
+        storedDate = LocalDate.now().toString();
+        dirty = true;
+    }
+
     public void flushIfDirty() {
         if (dirty) {
             dirty = false;
@@ -60,7 +76,7 @@ public class ExecutionLog {
     }
 
     public int size() {
-        return executedIds.size();
+        return executedIds.size() + partialIds.size();
     }
 
     public void cleanup() {
@@ -71,8 +87,9 @@ public class ExecutionLog {
             try {
                 LocalDate stored = LocalDate.parse(storedDate);
                 if (stored.isBefore(currentBusinessDay)) {
-                    int count = executedIds.size();
+                    int count = size();
                     executedIds.clear();
+                    partialIds.clear();
                     storedDate = today.toString();
                     save();
                     plugin.getLogger().info("Execution log cleared (" + count + " entries) - new business day");
@@ -80,6 +97,7 @@ public class ExecutionLog {
             } catch (Exception e) {
                 plugin.logWarning("Failed to parse execution log date, resetting: " + e.getMessage());
                 executedIds.clear();
+                partialIds.clear();
                 storedDate = today.toString();
                 save();
             }
@@ -113,9 +131,16 @@ public class ExecutionLog {
                         executedIds.addAll(commands);
                     }
                 }
+                if (data.containsKey("partial")) {
+                    @SuppressWarnings("unchecked")
+                    java.util.List<String> partial = (java.util.List<String>) data.get("partial");
+                    if (partial != null) {
+                        partialIds.addAll(partial);
+                    }
+                }
             }
 
-            plugin.getLogger().info("Loaded execution log: " + executedIds.size() + " entries from " + storedDate);
+            plugin.getLogger().info("Loaded execution log: " + size() + " entries from " + storedDate);
         } catch (Exception e) {
             plugin.logWarning("Failed to load execution log, starting fresh: " + e.getMessage());
             storedDate = LocalDate.now().toString();
@@ -125,6 +150,8 @@ public class ExecutionLog {
     }
 
     private synchronized void save() {
+        ExecutionLogFlushEvent event = new ExecutionLogFlushEvent();
+        event.begin();
         try {
             if (!logFile.getParentFile().exists()) {
                 logFile.getParentFile().mkdirs();
@@ -133,12 +160,19 @@ public class ExecutionLog {
             Map<String, Object> data = new java.util.LinkedHashMap<>();
             data.put("date", storedDate);
             data.put("commands", new java.util.ArrayList<>(executedIds));
+            data.put("partial", new java.util.ArrayList<>(partialIds));
 
             try (Writer writer = new OutputStreamWriter(new FileOutputStream(logFile), StandardCharsets.UTF_8)) {
                 gson.toJson(data, writer);
             }
+            event.success = true;
         } catch (Exception e) {
             plugin.logWarning("Failed to save execution log: " + e.getMessage());
         }
+        event.end();
+        if (event.shouldCommit()) {
+            event.entries = size();
+            event.commit();
+        }
     }
 }
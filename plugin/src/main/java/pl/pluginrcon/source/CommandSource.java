@@ -0,0 +1,42 @@
+package pl.pluginrcon.source;
+
+import pl.pluginrcon.command.CommandProcessor;
+import pl.pluginrcon.model.RemoteCommand;
+
+/**
+ * A channel that delivers commands into {@link CommandProcessor}. Dedupe,
+ * condition checks, parking and dispatch are shared; a source only decides
+ * how commands arrive and where their outcome is reported.
+ *
+ * Outcome callbacks may be invoked from the main thread and must not block.
+ */
+public interface CommandSource {
+
+    /** Short name used in logs and the status command. */
+    String getName();
+
+    void start(CommandProcessor processor);
+
+    void stop();
+
+    void reportComplete(RemoteCommand cmd, String response);
+
+    void reportFailed(RemoteCommand cmd, String error);
+
+    void reportSkipped(RemoteCommand cmd, String reason);
+
+    /**
+     * Hands a command back for immediate redelivery, e.g. one that was never
+     * dispatched before shutdown. Returns false if the source cannot take it
+     * back.
+     */
+    boolean release(RemoteCommand cmd);
+
+    /**
+     * Hands a parked command back to be offered again after a delay, so it
+     * does not take a slot in every poll while its conditions are unmet.
+     * Returns true if the source will deliver it again by itself; false asks
+     * the processor to retry it locally.
+     */
+    boolean defer(RemoteCommand cmd);
+}
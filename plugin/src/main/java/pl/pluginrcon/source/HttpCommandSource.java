@@ -0,0 +1,101 @@
+package pl.pluginrcon.source;
+
+import pl.pluginrcon.PluginRcon;
+import pl.pluginrcon.command.CommandProcessor;
+import pl.pluginrcon.model.RemoteCommand;
+import pl.pluginrcon.task.PullTask;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The API as a command source: a {@link PullTask} leases commands on the
+ * configured interval and outcomes go back as batched reports.
+ */
+public class HttpCommandSource implements CommandSource {
+
+    private static final long FALLBACK_DELAY_TICKS = 40L;
+
+    private final PluginRcon plugin;
+    private final Object pullTaskLock = new Object();
+    private PullTask pullTask;
+
+    public HttpCommandSource(PluginRcon plugin) {
+        this.plugin = plugin;
+    }
+
+    @Override
+    public String getName() {
+        return "http";
+    }
+
+    @Override
+    public void start(CommandProcessor processor) {
+        PullTask task = new PullTask(plugin, this, processor);
+        synchronized (pullTaskLock) {
+            pullTask = task;
+        }
+        long intervalTicks = plugin.getConfigManager().getPullInterval() * 20L;
+        long offsetTicks = plugin.getConfigManager().getPullOffset() * 20L;
+        long startedAt = System.currentTimeMillis();
+
+        // Don't let slow warm-up probes push the first poll past the fallback
+        // delay: it counts from now, not from when every probe has failed.
+        plugin.getApiClient().warmUp()
+                .completeOnTimeout(false, FALLBACK_DELAY_TICKS * 50L, TimeUnit.MILLISECONDS)
+                .thenAccept(reachable -> {
+                    long elapsedTicks = (System.currentTimeMillis() - startedAt) / 50L;
+                    long initialDelay = reachable
+                            ? Math.max(1L, offsetTicks)
+                            : Math.max(1L, FALLBACK_DELAY_TICKS - elapsedTicks) + offsetTicks;
+                    synchronized (pullTaskLock) {
+                        if (pullTask != task) return;
+                        task.runTaskTimerAsynchronously(plugin, initialDelay, intervalTicks);
+                    }
+                    if (plugin.isDebug()) {
+                        plugin.logDebug("API " + (reachable ? "reachable" : "unreachable") + " after "
+                                + (System.currentTimeMillis() - startedAt) + "ms, first poll in " + initialDelay + " ticks");
+                    }
+                });
+    }
+
+    @Override
+    public void stop() {
+        synchronized (pullTaskLock) {
+            PullTask task = pullTask;
+            pullTask = null;
+            if (task == null) return;
+            try {
+                task.cancel();
+            } catch (IllegalStateException e) {
+                // Not scheduled yet - the warm-up callback will see the task was replaced
+            }
+        }
+    }
+
+    @Override
+    public void reportComplete(RemoteCommand cmd, String response) {
+        plugin.getApiClient().reportComplete(cmd.getId(), response);
+    }
+
+    @Override
+    public void reportFailed(RemoteCommand cmd, String error) {
+        plugin.getApiClient().reportFailed(cmd.getId(), error);
+    }
+
+    @Override
+    public void reportSkipped(RemoteCommand cmd, String reason) {
+        plugin.getApiClient().reportSkipped(cmd.getId(), reason);
+    }
+
+    @Override
+    public boolean release(RemoteCommand cmd) {
+        plugin.getApiClient().releaseCommand(cmd.getId());
+        return true;
+    }
+
+    @Override
+    public boolean defer(RemoteCommand cmd) {
+        plugin.getApiClient().deferCommand(cmd.getId());
+        return true;
+    }
+}
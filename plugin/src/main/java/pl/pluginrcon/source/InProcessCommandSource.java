@@ -0,0 +1,145 @@
+package pl.pluginrcon.source;
+
+import org.bukkit.plugin.ServicePriority;
+import pl.pluginrcon.PluginRcon;
+import pl.pluginrcon.command.CommandProcessor;
+import pl.pluginrcon.model.RemoteCommand;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+
+/**
+ * Commands pushed by other plugins on the same server. Offered commands go
+ * through a {@link SubmissionPublisher} to a subscriber that feeds the
+ * processor, so delivery is a thread hand-off with no network hop.
+ */
+public class InProcessCommandSource implements CommandSource, LocalCommandService {
+
+    private static final int BUFFER_SIZE = 1024;
+    private static final int REQUEST_BATCH = 64;
+
+    private final PluginRcon plugin;
+    private final ExecutorService executor;
+    private final SubmissionPublisher<RemoteCommand> inbound;
+    private final SubmissionPublisher<RemoteCommand> outcomes;
+
+    public InProcessCommandSource(PluginRcon plugin) {
+        this.plugin = plugin;
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "PluginRCON-Local");
+            t.setDaemon(true);
+            return t;
+        });
+        this.inbound = new SubmissionPublisher<>(executor, BUFFER_SIZE);
+        this.outcomes = new SubmissionPublisher<>(executor, BUFFER_SIZE);
+    }
+
+    @Override
+    public String getName() {
+        return "in-process";
+    }
+
+    @Override
+    public void start(CommandProcessor processor) {
+        inbound.subscribe(new Flow.Subscriber<>() {
+            private Flow.Subscription subscription;
+            private int remaining;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                remaining = REQUEST_BATCH;
+                subscription.request(REQUEST_BATCH);
+            }
+
+            @Override
+            public void onNext(RemoteCommand cmd) {
+                try {
+                    if (cmd.getExecutionType() == null) {
+                        cmd.setExecutionType(RemoteCommand.ExecutionType.INSTANT);
+                    }
+                    processor.processCommand(cmd, InProcessCommandSource.this);
+                } catch (Exception e) {
+                    // An exception here would cancel the subscription and stop all local intake
+                    plugin.logWarning("Failed to process local command " + cmd.getId() + ": " + e.getMessage());
+                    reportFailed(cmd, "Internal error: " + e.getMessage());
+                }
+                if (--remaining == 0) {
+                    remaining = REQUEST_BATCH;
+                    subscription.request(REQUEST_BATCH);
+                }
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                plugin.logWarning("In-process command source failed: " + throwable.getMessage());
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        });
+        plugin.getServer().getServicesManager().register(LocalCommandService.class, this, plugin, ServicePriority.Normal);
+    }
+
+    @Override
+    public void stop() {
+        plugin.getServer().getServicesManager().unregister(LocalCommandService.class, this);
+        inbound.close();
+        outcomes.close();
+        executor.shutdown();
+    }
+
+    @Override
+    public boolean offer(RemoteCommand command) {
+        if (command == null || command.getId() == null) return false;
+        try {
+            return inbound.offer(command, (subscriber, dropped) -> false) >= 0;
+        } catch (IllegalStateException e) {
+            return false; // closed
+        }
+    }
+
+    @Override
+    public Flow.Publisher<RemoteCommand> results() {
+        return outcomes;
+    }
+
+    @Override
+    public void reportComplete(RemoteCommand cmd, String response) {
+        publish(cmd, "EXECUTED", response);
+    }
+
+    @Override
+    public void reportFailed(RemoteCommand cmd, String error) {
+        publish(cmd, "FAILED", error);
+    }
+
+    @Override
+    public void reportSkipped(RemoteCommand cmd, String reason) {
+        publish(cmd, "SKIPPED", reason);
+    }
+
+    @Override
+    public boolean release(RemoteCommand cmd) {
+        return false;
+    }
+
+    @Override
+    public boolean defer(RemoteCommand cmd) {
+        return false;
+    }
+
+    private void publish(RemoteCommand cmd, String status, String response) {
+        cmd.setStatus(status);
+        cmd.setResponse(response);
+        if (!outcomes.hasSubscribers()) return;
+        try {
+            outcomes.offer(cmd, (subscriber, dropped) -> false);
+        } catch (IllegalStateException e) {
+            // Closed during shutdown
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package pl.pluginrcon.source;
+
+import pl.pluginrcon.model.RemoteCommand;
+
+import java.util.concurrent.Flow;
+
+/**
+ * In-process entry point for other plugins, registered with the Bukkit
+ * {@code ServicesManager} while PluginRCON is enabled:
+ *
+ * <pre>
+ * LocalCommandService rcon = Bukkit.getServicesManager().load(LocalCommandService.class);
+ * if (rcon != null) rcon.offer(command);
+ * </pre>
+ *
+ * Look the service up when needed rather than caching it; a reload replaces
+ * the instance. Commands need a unique id, which is also the dedupe key.
+ */
+public interface LocalCommandService {
+
+    /**
+     * Queues a command without blocking. Returns false if it was dropped
+     * because the buffer is full or the service has been closed.
+     */
+    boolean offer(RemoteCommand command);
+
+    /**
+     * Outcomes of offered commands, published as the same command objects
+     * with status EXECUTED, FAILED or SKIPPED and the response set.
+     */
+    Flow.Publisher<RemoteCommand> results();
+}
@@ -0,0 +1,257 @@
+package pl.pluginrcon.source;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import pl.pluginrcon.PluginRcon;
+import pl.pluginrcon.command.CommandProcessor;
+import pl.pluginrcon.model.RemoteCommand;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Picks up {@code *.json} files dropped into a spool directory. Each file
+ * holds one command object or an array of them (camelCase fields, as in
+ * {@link RemoteCommand}). Writers should create the file under another name
+ * and rename it into place so half-written files are never read.
+ *
+ * Files are ingested in batches after a short settle delay. Their commands
+ * are handed to the processor first and the file is then moved to
+ * {@code done/}, or to {@code failed/} if it can't be parsed, so a crash in
+ * between leaves the file in place to be read again. Outcomes are appended to
+ * {@code results.log} from the watcher thread.
+ */
+public class SpoolCommandSource implements CommandSource {
+
+    private static final long SETTLE_MS = 50;
+    private static final long RESULT_FLUSH_MS = 1000;
+
+    private final PluginRcon plugin;
+    private final Path directory;
+    private final int batchSize;
+    private final Gson gson = new Gson();
+    private final Queue<String> results = new ConcurrentLinkedQueue<>();
+    private volatile WatchService watcher;
+    private Thread thread;
+
+    public SpoolCommandSource(PluginRcon plugin, Path directory, int batchSize) {
+        this.plugin = plugin;
+        this.directory = directory;
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    @Override
+    public String getName() {
+        return "spool";
+    }
+
+    @Override
+    public void start(CommandProcessor processor) {
+        try {
+            Files.createDirectories(directory.resolve("done"));
+            Files.createDirectories(directory.resolve("failed"));
+            watcher = directory.getFileSystem().newWatchService();
+            // A rename into the directory is reported as ENTRY_CREATE
+            directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE);
+        } catch (IOException e) {
+            plugin.logWarning("Spool source disabled, cannot watch " + directory + ": " + e.getMessage());
+            return;
+        }
+
+        thread = new Thread(() -> watchLoop(processor), "PluginRCON-Spool");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void stop() {
+        WatchService w = watcher;
+        watcher = null;
+        if (w != null) {
+            try {
+                w.close();
+            } catch (IOException ignored) {
+            }
+        }
+        if (thread != null) {
+            try {
+                thread.join(2000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+        flushResults();
+    }
+
+    private void watchLoop(CommandProcessor processor) {
+        ingestAll(processor);
+        try {
+            while (watcher != null) {
+                WatchKey key = watcher.poll(RESULT_FLUSH_MS, TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    key.pollEvents();
+                    key.reset();
+                    // Let a burst of drops settle so it is picked up as one batch
+                    Thread.sleep(SETTLE_MS);
+                    WatchKey more;
+                    while ((more = watcher.poll()) != null) {
+                        more.pollEvents();
+                        more.reset();
+                    }
+                    ingestAll(processor);
+                }
+                flushResults();
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            // Stopped
+        }
+    }
+
+    private void ingestAll(CommandProcessor processor) {
+        List<Path> batch;
+        boolean progressed;
+        do {
+            batch = listBatch();
+            progressed = false;
+            for (Path file : batch) {
+                progressed |= ingest(file, processor);
+            }
+        } while (progressed && batch.size() == batchSize);
+    }
+
+    private List<Path> listBatch() {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.json")) {
+            for (Path file : stream) {
+                if (Files.isRegularFile(file)) files.add(file);
+            }
+        } catch (IOException e) {
+            plugin.logWarning("Failed to list spool directory: " + e.getMessage());
+        }
+        files.sort(null);
+        return files.size() > batchSize ? files.subList(0, batchSize) : files;
+    }
+
+    /**
+     * Returns false if the file could not be moved out of the spool, so the
+     * caller stops instead of picking it up again.
+     */
+    private boolean ingest(Path file, CommandProcessor processor) {
+        String fileName = file.getFileName().toString();
+        List<RemoteCommand> commands = new ArrayList<>();
+        try {
+            byte[] content = Files.readAllBytes(file);
+            String fileKey = fileKey(content, Files.getLastModifiedTime(file).toMillis());
+            JsonElement root = JsonParser.parseString(new String(content, StandardCharsets.UTF_8));
+            List<JsonElement> elements = new ArrayList<>();
+            if (root.isJsonArray()) {
+                root.getAsJsonArray().forEach(elements::add);
+            } else {
+                elements.add(root);
+            }
+            for (int i = 0; i < elements.size(); i++) {
+                RemoteCommand cmd = gson.fromJson(elements.get(i), RemoteCommand.class);
+                if (cmd.getId() == null) {
+                    // Same file re-read after a crash gets the same ids and is deduplicated
+                    // by the execution log; a later drop of the same content has a new mtime
+                    cmd.setId("spool-" + fileKey + "#" + i);
+                }
+                if (cmd.getExecutionType() == null) {
+                    cmd.setExecutionType(RemoteCommand.ExecutionType.INSTANT);
+                }
+                commands.add(cmd);
+            }
+        } catch (Exception e) {
+            plugin.logWarning("Rejected spool file " + fileName + ": " + e.getMessage());
+            return move(file, "failed");
+        }
+
+        if (plugin.isDebug()) {
+            plugin.logDebug("[Spool] " + fileName + ": " + commands.size() + " commands");
+        }
+        for (RemoteCommand cmd : commands) {
+            processor.processCommand(cmd, this);
+        }
+        return move(file, "done");
+    }
+
+    private static String fileKey(byte[] content, long modifiedMillis) throws NoSuchAlgorithmException {
+        byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+        return HexFormat.of().formatHex(digest, 0, 8) + "-" + modifiedMillis;
+    }
+
+    private boolean move(Path file, String target) {
+        try {
+            Files.move(file, directory.resolve(target).resolve(file.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+            return true;
+        } catch (IOException e) {
+            plugin.logWarning("Failed to move spool file " + file.getFileName() + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public void reportComplete(RemoteCommand cmd, String response) {
+        record(cmd, "EXECUTED", response);
+    }
+
+    @Override
+    public void reportFailed(RemoteCommand cmd, String error) {
+        record(cmd, "FAILED", error);
+    }
+
+    @Override
+    public void reportSkipped(RemoteCommand cmd, String reason) {
+        record(cmd, "SKIPPED", reason);
+    }
+
+    @Override
+    public boolean release(RemoteCommand cmd) {
+        return false;
+    }
+
+    @Override
+    public boolean defer(RemoteCommand cmd) {
+        return false;
+    }
+
+    private void record(RemoteCommand cmd, String status, String response) {
+        String message = response == null ? "" : response.replace('\n', ' ');
+        results.add(Instant.now() + " " + cmd.getId() + " " + status + " " + message);
+    }
+
+    private synchronized void flushResults() {
+        if (results.isEmpty()) return;
+        try (Writer writer = Files.newBufferedWriter(directory.resolve("results.log"), StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            String line;
+            while ((line = results.poll()) != null) {
+                writer.write(line);
+                writer.write('\n');
+            }
+        } catch (IOException e) {
+            plugin.logWarning("Failed to write spool results: " + e.getMessage());
+        }
+    }
+}
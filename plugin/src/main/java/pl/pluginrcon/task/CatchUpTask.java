@@ -0,0 +1,105 @@
+package pl.pluginrcon.task;
+
+import org.bukkit.scheduler.BukkitRunnable;
+import pl.pluginrcon.PluginRcon;
+import pl.pluginrcon.model.RemoteCommand;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * Spreads main-thread command dispatch over a ramp after server start, so the
+ * backlog accumulated during downtime doesn't land in a single tick while
+ * chunks are still loading. The per-tick budget grows linearly from the
+ * initial to the maximum rate; once the ramp has elapsed and the queue is
+ * drained the task stops and dispatch goes back to plain {@code runTask}.
+ */
+public class CatchUpTask extends BukkitRunnable {
+
+    private final PluginRcon plugin;
+    private final long rampMillis;
+    private final int initialPerTick;
+    private final int maxPerTick;
+    private final long startedAt = System.currentTimeMillis();
+    private final Queue<Entry> queue = new ArrayDeque<>();
+    private boolean active = true;
+
+    public CatchUpTask(PluginRcon plugin, long rampMillis, int initialPerTick, int maxPerTick) {
+        this.plugin = plugin;
+        this.rampMillis = rampMillis;
+        this.initialPerTick = Math.max(1, initialPerTick);
+        this.maxPerTick = Math.max(this.initialPerTick, maxPerTick);
+    }
+
+    /**
+     * Queues a main-thread task. Returns false once catch-up has ended, in
+     * which case the caller should schedule the task normally.
+     */
+    public synchronized boolean submit(RemoteCommand cmd, Runnable task) {
+        if (!active) return false;
+        queue.add(new Entry(cmd, task));
+        return true;
+    }
+
+    public synchronized int getQueued() {
+        return queue.size();
+    }
+
+    @Override
+    public void run() {
+        long elapsed = System.currentTimeMillis() - startedAt;
+        List<Entry> batch = new ArrayList<>();
+
+        synchronized (this) {
+            if (elapsed >= rampMillis && queue.isEmpty()) {
+                active = false;
+                cancel();
+                plugin.logDebug("[CatchUp] Ramp finished, dispatching normally");
+                return;
+            }
+
+            int budget = elapsed >= rampMillis
+                    ? maxPerTick
+                    : initialPerTick + (int) ((maxPerTick - initialPerTick) * elapsed / rampMillis);
+            Entry entry;
+            while (batch.size() < budget && (entry = queue.poll()) != null) {
+                batch.add(entry);
+            }
+        }
+
+        for (Entry entry : batch) {
+            try {
+                entry.task.run();
+            } catch (Exception e) {
+                plugin.logWarning("Catch-up dispatch failed: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Stops the ramp and returns the commands that were still queued, so the
+     * caller can hand them back to their sources.
+     */
+    public synchronized List<RemoteCommand> stop() {
+        active = false;
+        List<RemoteCommand> pending = new ArrayList<>(queue.size());
+        for (Entry entry : queue) {
+            pending.add(entry.cmd);
+        }
+        queue.clear();
+        cancel();
+        return pending;
+    }
+
+    private static final class Entry {
+        final RemoteCommand cmd;
+        final Runnable task;
+
+        Entry(RemoteCommand cmd, Runnable task) {
+            this.cmd = cmd;
+            this.task = task;
+        }
+    }
+}
@@ -2,31 +2,52 @@ package pl.pluginrcon.task;
 
 import org.bukkit.scheduler.BukkitRunnable;
 import pl.pluginrcon.PluginRcon;
+import pl.pluginrcon.command.CommandProcessor;
+import pl.pluginrcon.jfr.PollEvent;
 import pl.pluginrcon.model.RemoteCommand;
+import pl.pluginrcon.source.CommandSource;
+import pl.pluginrcon.trace.TraceEvent;
 
 import java.util.List;
 
 public class PullTask extends BukkitRunnable {
 
     private final PluginRcon plugin;
+    private final CommandSource source;
+    private final CommandProcessor processor;
 
-    public PullTask(PluginRcon plugin) {
+    public PullTask(PluginRcon plugin, CommandSource source, CommandProcessor processor) {
         this.plugin = plugin;
+        this.source = source;
+        this.processor = processor;
     }
 
     @Override
     public void run() {
-        plugin.getApiClient().fetchPendingCommands()
-                .thenAccept(this::processCommands);
+        PollEvent event = new PollEvent();
+        event.begin();
+
+        plugin.getApiClient().claimPendingCommands()
+                .thenAccept(commands -> {
+                    processCommands(commands);
+                    event.end();
+                    if (event.shouldCommit()) {
+                        event.commandCount = commands.size();
+                        event.commit();
+                    }
+                });
     }
 
     private void processCommands(List<RemoteCommand> commands) {
+        plugin.getTrace().record(TraceEvent.POLL, null, commands.size());
         if (commands.isEmpty()) return;
 
-        plugin.logDebug("[Pull] Received " + commands.size() + " commands");
+        if (plugin.isDebug()) {
+            plugin.logDebug("[Pull] Received " + commands.size() + " commands");
+        }
 
         for (RemoteCommand cmd : commands) {
-            plugin.getCommandProcessor().processCommand(cmd);
+            processor.processCommand(cmd, source);
         }
     }
 }
@@ -0,0 +1,87 @@
+package pl.pluginrcon.trace;
+
+import org.bukkit.Bukkit;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size in-memory ring of pipeline events. All slots are allocated up
+ * front and {@link #record} only writes primitives and existing references,
+ * so tracing costs a single volatile read when disabled and allocates nothing
+ * when enabled. Each slot carries a sequence number written last, letting
+ * {@link #dump} skip slots that are being overwritten concurrently.
+ */
+public class TraceBuffer {
+
+    private final int capacity;
+    private final long[] timestamps;
+    private final TraceEvent[] events;
+    private final String[] commandIds;
+    private final long[] values;
+    private final boolean[] mainThread;
+    private final AtomicLongArray sequences;
+    private final AtomicLong cursor = new AtomicLong();
+    private volatile boolean enabled;
+
+    public TraceBuffer(int capacity, boolean enabled) {
+        this.capacity = Math.max(16, capacity);
+        this.timestamps = new long[this.capacity];
+        this.events = new TraceEvent[this.capacity];
+        this.commandIds = new String[this.capacity];
+        this.values = new long[this.capacity];
+        this.mainThread = new boolean[this.capacity];
+        this.sequences = new AtomicLongArray(this.capacity);
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() { return enabled; }
+    public void setEnabled(boolean enabled) { this.enabled = enabled; }
+    public int getCapacity() { return capacity; }
+
+    public void record(TraceEvent event, String commandId, long value) {
+        if (!enabled) return;
+
+        long seq = cursor.getAndIncrement();
+        int slot = (int) (seq % capacity);
+        sequences.set(slot, 0);
+        timestamps[slot] = System.currentTimeMillis();
+        events[slot] = event;
+        commandIds[slot] = commandId;
+        values[slot] = value;
+        mainThread[slot] = Bukkit.isPrimaryThread();
+        sequences.set(slot, seq + 1);
+    }
+
+    /**
+     * Writes buffered events oldest first, optionally only those for one command.
+     * Returns the number of lines written.
+     */
+    public int dump(Writer out, String commandId) throws IOException {
+        long end = cursor.get();
+        long start = Math.max(0, end - capacity);
+        int written = 0;
+
+        for (long seq = start; seq < end; seq++) {
+            int slot = (int) (seq % capacity);
+            if (sequences.get(slot) != seq + 1) continue;
+
+            long timestamp = timestamps[slot];
+            TraceEvent event = events[slot];
+            String id = commandIds[slot];
+            long value = values[slot];
+            boolean main = mainThread[slot];
+
+            if (sequences.get(slot) != seq + 1) continue;
+            if (commandId != null && !commandId.equals(id)) continue;
+
+            out.write(Instant.ofEpochMilli(timestamp) + " " + event + " "
+                    + (main ? "main" : "async") + " " + (id != null ? id : "-") + " " + value + "\n");
+            written++;
+        }
+        return written;
+    }
+}
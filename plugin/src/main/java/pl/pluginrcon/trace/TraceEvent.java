@@ -0,0 +1,11 @@
+package pl.pluginrcon.trace;
+
+public enum TraceEvent {
+    POLL,
+    DEDUPE_HIT,
+    PARK,
+    DISPATCH,
+    REPORT,
+    REPORT_RETRY,
+    REPORT_FAILED
+}
@@ -0,0 +1,27 @@
+package pl.pluginrcon.api;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ApiEndpointTest {
+
+    @Test
+    void unsampledEndpointDoesNotOutrankHealthyOne() {
+        ApiEndpoint healthy = new ApiEndpoint("http://a");
+        healthy.recordSuccess(40);
+        ApiEndpoint unknown = new ApiEndpoint("http://b");
+
+        assertTrue(healthy.score() < unknown.score());
+    }
+
+    @Test
+    void failingEndpointWithoutSamplesRanksBelowSlowHealthyOne() {
+        ApiEndpoint slow = new ApiEndpoint("http://a");
+        slow.recordSuccess(400);
+        ApiEndpoint dead = new ApiEndpoint("http://b");
+        dead.recordFailure();
+
+        assertTrue(slow.score() < dead.score());
+    }
+}
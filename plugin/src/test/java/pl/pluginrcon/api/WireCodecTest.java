@@ -0,0 +1,102 @@
+package pl.pluginrcon.api;
+
+import org.junit.jupiter.api.Test;
+import pl.pluginrcon.model.RemoteCommand;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HexFormat;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class WireCodecTest {
+
+    // Frame produced by api/src/wire.js encodeCommands (version 3); must stay
+    // identical to the fixture in api/test/wire.test.js.
+    private static final String API_COMMANDS_V3 =
+            "030203613109736b79626c6f636b18676976652025706c6179657225206469616d6f6e642031065374657665010000000000"
+            + "000362320007736179206869000003673102077361792068690c73617920c5bcc3b3c58277087669702e757365000106";
+
+    // Expected by api/test/wire.test.js as the plugin's report frame.
+    private static final String PLUGIN_REPORTS_V3 = "030303613100034f4b03623203000363330108c5bcc3b3c58277";
+
+    @Test
+    void decodesCommandFrameFromApi() {
+        List<RemoteCommand> commands = WireCodec.decodeCommands(HexFormat.of().parseHex(API_COMMANDS_V3));
+
+        assertEquals(2, commands.size());
+        RemoteCommand first = commands.get(0);
+        assertEquals("a1", first.getId());
+        assertEquals("skyblock", first.getGameMode());
+        assertEquals("give %player% diamond 1", first.getCommand());
+        assertEquals("Steve", first.getPlayer());
+        assertEquals(RemoteCommand.ExecutionType.REQUIRE_ONLINE, first.getExecutionType());
+        assertNull(first.getScript());
+        assertNull(first.getConditions());
+
+        RemoteCommand second = commands.get(1);
+        assertEquals("g1", second.getGroupId());
+        assertEquals(List.of("say hi", "say żółw"), second.getScript());
+        assertEquals("vip.use", second.getConditions().getPermission());
+        assertNull(second.getConditions().getWorld());
+        assertEquals(0, second.getConditions().getMinOnline());
+        assertEquals(5, second.getConditions().getMaxOnline());
+    }
+
+    @Test
+    void decodesOlderVersions() {
+        for (int version = 1; version <= 3; version++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.write(version);
+            out.write(1);
+            string(out, "id-" + version);
+            string(out, null);
+            string(out, "say hi");
+            string(out, null);
+            out.write(0);
+            string(out, null);
+            if (version >= 2) {
+                out.write(1);
+                string(out, "say hi");
+            }
+            if (version >= 3) {
+                out.write(new byte[] {0, 0, 0, 0}, 0, 4);
+            }
+
+            RemoteCommand cmd = WireCodec.decodeCommands(out.toByteArray()).get(0);
+            assertEquals("id-" + version, cmd.getId());
+            assertEquals(version >= 2 ? List.of("say hi") : null, cmd.getScript());
+            assertNull(cmd.getConditions());
+        }
+    }
+
+    @Test
+    void encodesReportFrameForApi() {
+        byte[] frame = WireCodec.encodeReports(List.of(
+                new Report("a1", Report.Status.EXECUTED, "OK"),
+                new Report("b2", Report.Status.RELEASED, null),
+                new Report("c3", Report.Status.FAILED, "żółw")));
+
+        assertEquals(PLUGIN_REPORTS_V3, HexFormat.of().formatHex(frame));
+    }
+
+    @Test
+    void rejectsUnknownVersionAndTruncatedFrame() {
+        assertThrows(IllegalStateException.class, () -> WireCodec.decodeCommands(new byte[] {4, 0}));
+        assertThrows(IllegalStateException.class,
+                () -> WireCodec.decodeCommands(HexFormat.of().parseHex(API_COMMANDS_V3.substring(0, 40))));
+    }
+
+    private static void string(ByteArrayOutputStream out, String value) {
+        if (value == null) {
+            out.write(0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.write(bytes.length + 1);
+        out.write(bytes, 0, bytes.length);
+    }
+}